@@ -0,0 +1,6 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# compares reservations/sec of the row locking and hot SKU order paths
+# usage: bench_hotsku.sh <storeID> <productName> [threads] [seconds]
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar HotSkuBenchmark $USER"_DB" $PGPORT $USER "$@"
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# export|import the whole dataset as column files, or round-trip data/*.csv
+# usage: columnar.sh export <dir>
+#        columnar.sh import <dir>
+#        columnar.sh verify [outDir]
+CP=$DIR/../classes:$DIR/../lib/pg73jdbc3.jar
+case "$1" in
+   verify) java -cp $CP ColumnarExport verify $DIR/../../data ${2:-/tmp/${USER}_rcol} ;;
+   *)      java -cp $CP ColumnarExport $1 $USER"_DB" $PGPORT $USER $2 ;;
+esac
@@ -0,0 +1,9 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# checks the query plans of every Retail menu query against the baseline
+# usage: plan_check.sh [--load SCALE] [--record]
+#  --load SCALE  first adds a synthetic dataset SCALE times the base size
+#  --record      writes the current timings and plans as the new baseline
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanRegressionHarness $USER"_DB" $PGPORT $USER \
+   --baseline $DIR/../../sql/plan_baseline.tsv "$@"
@@ -0,0 +1,173 @@
+/*
+ * Bulk price/stock updates for the Retail user interface
+ * ======================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Applies a file of product updates, one "storeID,productName,units,price"
+ * line per product, to Product in chunks.
+ *
+ * Each chunk is one transaction holding one set-based UPDATE joined to a
+ * VALUES list and one INSERT ... SELECT of the matching ProductUpdates audit
+ * rows. A manager's rows only match products of stores they manage; rows for
+ * other stores are counted as unauthorized and left alone. An admin may
+ * update any store.
+ */
+public class BulkProductUpdate {
+
+   // rows per transaction.
+   static final int CHUNK_ROWS = 1000;
+
+   private final Retail esql;
+   private final int userID;
+   private final boolean admin;
+
+   // totals over the whole file
+   private long read = 0;
+   private long updated = 0;
+   private long unauthorized = 0;
+   private long unknown = 0;
+   private long invalid = 0;
+
+   public BulkProductUpdate(Retail esql, int userID, boolean admin) {
+      this.esql = esql;
+      this.userID = userID;
+      this.admin = admin;
+   }
+
+   /**
+    * Reads the whole input and applies it chunk by chunk. A header line and
+    * blank lines are skipped; malformed lines are reported and counted.
+    *
+    * @param in the update lines
+    * @throws java.sql.SQLException when a chunk fails; earlier chunks stay committed
+    */
+   public void apply(BufferedReader in) throws SQLException, IOException {
+      long start = System.nanoTime();
+      // the last line for a product within a chunk wins
+      Map<String, String> chunk = new LinkedHashMap<String, String>();
+      int lineNumber = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+         ++lineNumber;
+         line = line.trim();
+         if (line.length() == 0 || (lineNumber == 1 && line.toLowerCase().startsWith("storeid")))
+            continue;
+         ++this.read;
+         String[] f = line.split(",");
+         try {
+            if (f.length != 4)
+               throw new NumberFormatException("expected storeID,productName,units,price");
+            int storeID = Integer.parseInt(f[0].trim());
+            String productName = f[1].trim();
+            int units = Integer.parseInt(f[2].trim());
+            double price = Double.parseDouble(f[3].trim());
+            if (units < 0 || price < 0 || Double.isNaN(price) || Double.isInfinite(price)
+                || productName.length() == 0 || productName.length() > 30)
+               throw new NumberFormatException("out of range");
+            chunk.put(storeID + ":" + productName,
+               "(" + storeID + ", '" + productName.replace("'", "''") + "', " + units + ", " + price + ")");
+         }catch (NumberFormatException e) {
+            System.err.println("Line " + lineNumber + " skipped: " + e.getMessage());
+            ++this.invalid;
+            continue;
+         }
+         if (chunk.size() == CHUNK_ROWS) {
+            applyChunk(chunk);
+            chunk.clear();
+         }
+      }
+      if (!chunk.isEmpty())
+         applyChunk(chunk);
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format(
+         "%d lines read, %d products updated, %d unauthorized, %d unknown, %d invalid in %.2f s (%.0f rows/sec)",
+         this.read, this.updated, this.unauthorized, this.unknown, this.invalid, seconds,
+         seconds == 0 ? 0.0 : this.updated / seconds));
+   }//end apply
+
+   /**
+    * The statements of one chunk, also planned by PlanRegressionHarness.
+    *
+    * @param values the "(storeID, 'productName', units, price)" rows, comma separated
+    */
+   static String notOwnedSql(String values, int userID) {
+      return "SELECT COUNT(*) FROM (VALUES " + values + ") AS V(storeID, productName, units, price) "
+         + "WHERE V.storeID NOT IN (SELECT S.storeID FROM Store S WHERE S.managerID = " + userID + ")";
+   }
+
+   static String updateSql(String values, int userID, boolean admin) {
+      return "UPDATE Product P SET numberOfUnits = V.units, pricePerUnit = V.price FROM "
+         + fromValues(values, userID, admin);
+   }
+
+   static String auditSql(String values, int userID, boolean admin) {
+      return "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) "
+         + "SELECT " + userID + ", P.storeID, P.productName, now() FROM Product P, "
+         + fromValues(values, userID, admin);
+   }
+
+   // the VALUES list joined to Product, limited to a manager's stores
+   private static String fromValues(String values, int userID, boolean admin) {
+      return "(VALUES " + values + ") AS V(storeID, productName, units, price) "
+         + "WHERE P.storeID = V.storeID AND P.productName = CAST(V.productName AS char(30))"
+         + (admin ? "" : " AND P.storeID IN (SELECT S.storeID FROM Store S WHERE S.managerID = " + userID + ")");
+   }
+
+   /**
+    * Applies one chunk in a single transaction.
+    */
+   private void applyChunk(Map<String, String> chunk) throws SQLException {
+      StringBuilder values = new StringBuilder();
+      for (String row : chunk.values())
+         values.append(values.length() == 0 ? "" : ", ").append(row);
+
+      // pending hot SKU reservations must reach Product before it is overwritten
+      if (this.esql.hotSkus() != null)
+         this.esql.hotSkus().flush();
+
+      Connection conn = this.esql.connectionForWrite();
+      conn.setAutoCommit(false);
+      try {
+         Statement stmt = conn.createStatement();
+         int notOwned = 0;
+         if (!this.admin) {
+            ResultSet rs = stmt.executeQuery(notOwnedSql(values.toString(), this.userID));
+            notOwned = rs.next() ? rs.getInt(1) : 0;
+         }
+         int n = stmt.executeUpdate(updateSql(values.toString(), this.userID, this.admin));
+         stmt.executeUpdate(auditSql(values.toString(), this.userID, this.admin));
+         stmt.close();
+         conn.commit();
+         this.updated += n;
+         this.unauthorized += notOwned;
+         this.unknown += chunk.size() - n - notOwned;
+      }catch (SQLException e) {
+         conn.rollback();
+         throw e;
+      }finally {
+         conn.setAutoCommit(true);
+      }
+
+      for (String key : chunk.keySet()) {
+         int sep = key.indexOf(':');
+         this.esql.resyncHotSku(key.substring(0, sep), key.substring(sep + 1));
+      }
+   }//end applyChunk
+
+}//end BulkProductUpdate
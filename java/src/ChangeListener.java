@@ -0,0 +1,306 @@
+/*
+ * Cross-instance cache coherence for the Retail user interface
+ * ============================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.Iterator;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+
+/**
+ * Background thread that keeps this instance's caches in step with changes
+ * made by other Retail instances.
+ *
+ * The triggers in create_triggers.sql log every changed Product, Store and
+ * Users key to ChangeLog and NOTIFY 'retail_changes'. This thread LISTENs on
+ * its own connection; on a notification it reads the new ChangeLog rows and
+ * hands each key to the registered caches, which patch or drop the entry.
+ * Keys are read from ChangeLog rather than from the NOTIFY payload because
+ * the bundled JDBC driver does not expose payloads. When the connection is
+ * lost the thread reconnects and asks every cache for a full resync, since
+ * notifications sent in the meantime are gone.
+ *
+ * ChangeLog numbers are assigned before commit, so a lower number can become
+ * visible after a higher one. Every number skipped over is kept as a gap and
+ * looked for again until it shows up; a gap still open after GAP_MILLIS,
+ * e.g. from a rolled back transaction, is dropped with a full resync.
+ *
+ * Enabled with -Dretail.listen=true; the triggers are only installed by
+ * create_db.sh when RETAIL_LISTEN=true.
+ */
+public class ChangeListener implements Runnable {
+
+   /**
+    * A local cache that can be patched by key or rebuilt from scratch.
+    */
+   public interface Cache {
+      /**
+       * Applies one changed key, re-reading it through conn if needed.
+       *
+       * @param table product, store or users
+       * @param key the changed key as written by the triggers
+       */
+      void onChange(Connection conn, String table, String key) throws SQLException;
+
+      /**
+       * Rebuilds the cache from the database.
+       */
+      void resync(Connection conn) throws SQLException;
+   }//end Cache
+
+   // how often the connection is polled for notifications.
+   private static final long POLL_MILLIS = 250;
+   // how long to wait before reconnecting after a failure.
+   private static final long RECONNECT_MILLIS = 2000;
+   // how long a missing ChangeLog number is waited for, well below the
+   // hour log_retail_change keeps ChangeLog rows.
+   private static final long GAP_MILLIS = 600000;
+   // minimum time between two resyncs caused by dropped gaps.
+   private static final long GAP_RESYNC_MILLIS = 60000;
+
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final List<Cache> caches = new ArrayList<Cache>();
+   private volatile boolean running = false;
+   private Thread thread = null;
+   private Connection conn = null;
+
+   // highest ChangeLog number applied, the lower numbers not applied yet
+   // with the time each was noticed, and whether a dropped gap is owed a resync.
+   private long lastSeen = 0;
+   private final TreeMap<Long, Long> gaps = new TreeMap<Long, Long>();
+   private boolean gapResyncDue = false;
+   private long lastResync = 0;
+
+   // metrics
+   private long notifications = 0;
+   private long changes = 0;
+   private long resyncs = 0;
+   private long reconnects = 0;
+   private double lastLagMillis = 0.0;
+   private double maxLagMillis = 0.0;
+   private double totalLagMillis = 0.0;
+
+   public ChangeListener(String url, String user, String passwd) {
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+   }
+
+   public synchronized void register(Cache cache) {
+      this.caches.add(cache);
+   }
+
+   public void start() {
+      this.running = true;
+      this.thread = new Thread(this, "retail-change-listener");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }//end start
+
+   public void stop() {
+      this.running = false;
+      if (this.thread != null) {
+         this.thread.interrupt();
+         try {
+            this.thread.join(RECONNECT_MILLIS);
+         }catch (InterruptedException e) {
+            // ignored.
+         }
+      }
+      closeQuietly();
+   }//end stop
+
+   public void run() {
+      while (this.running) {
+         try {
+            if (this.conn == null)
+               connect();
+            poll();
+            Thread.sleep(POLL_MILLIS);
+         }catch (InterruptedException e) {
+            // stop() was called.
+         }catch (SQLException e) {
+            System.err.println("Change listener lost its connection: " + e.getMessage());
+            closeQuietly();
+            try {
+               Thread.sleep(RECONNECT_MILLIS);
+            }catch (InterruptedException ie) {
+               // stop() was called.
+            }
+         }
+      }
+   }//end run
+
+   /**
+    * Opens the listening connection and rebuilds every cache. LISTEN is
+    * issued before the resync so no change after the resync can be missed.
+    * Numbers missing below the current maximum may belong to transactions
+    * still running, so they start out as gaps.
+    */
+   private void connect() throws SQLException {
+      this.conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+      Statement stmt = this.conn.createStatement();
+      stmt.execute("LISTEN retail_changes");
+      ResultSet rs = stmt.executeQuery("SELECT 1 FROM pg_trigger WHERE tgname = 'product_changed'");
+      if (!rs.next())
+         System.err.println("Change listener: triggers missing, run create_triggers.sql");
+      rs = stmt.executeQuery("SELECT COALESCE(MAX(changeNumber), 0) FROM ChangeLog");
+      long start = rs.next() ? rs.getLong(1) : 0;
+      rs = stmt.executeQuery(
+         "SELECT n FROM generate_series((SELECT MIN(changeNumber) FROM ChangeLog), " + start + ") n "
+         + "WHERE NOT EXISTS (SELECT 1 FROM ChangeLog C WHERE C.changeNumber = n)");
+      List<Long> missing = new ArrayList<Long>();
+      while (rs.next())
+         missing.add(rs.getLong(1));
+      stmt.close();
+      synchronized (this) {
+         if (this.resyncs > 0 || this.notifications > 0)
+            ++this.reconnects;
+         this.lastSeen = start;
+         this.gaps.clear();
+         long now = System.currentTimeMillis();
+         for (Long n : missing)
+            this.gaps.put(n, now);
+         resyncAll();
+      }
+   }//end connect
+
+   /**
+    * Applies any ChangeLog rows announced since the last poll: those above
+    * lastSeen and those filling a gap.
+    */
+   private void poll() throws SQLException {
+      // a round trip is needed for the driver to read pending notifications
+      Statement stmt = this.conn.createStatement();
+      stmt.executeQuery("SELECT 1").close();
+      PGNotification[] pending = ((PGConnection) this.conn).getNotifications();
+      if (pending == null || pending.length == 0) {
+         stmt.close();
+         synchronized (this) {
+            expireGaps();
+         }
+         return;
+      }
+
+      String where;
+      synchronized (this) {
+         where = "changeNumber > " + this.lastSeen + gapRanges();
+      }
+      ResultSet rs = stmt.executeQuery(
+         "SELECT changeNumber, tableName, changedKey, "
+         + "EXTRACT(EPOCH FROM clock_timestamp() - changedOn) * 1000 "
+         + "FROM ChangeLog WHERE " + where + " ORDER BY changeNumber");
+      List<String[]> rows = new ArrayList<String[]>();
+      while (rs.next())
+         rows.add(new String[] { rs.getString(1), rs.getString(2).trim(), rs.getString(3), rs.getString(4) });
+      stmt.close();
+
+      synchronized (this) {
+         this.notifications += pending.length;
+         long now = System.currentTimeMillis();
+         for (String[] row : rows) {
+            long number = Long.parseLong(row[0]);
+            if (number > this.lastSeen) {
+               for (long n = this.lastSeen + 1; n < number; ++n)
+                  this.gaps.put(n, now);
+               this.lastSeen = number;
+            }else if (this.gaps.remove(number) == null) {
+               continue;
+            }
+            for (Cache cache : this.caches)
+               cache.onChange(this.conn, row[1], row[2]);
+            double lag = Double.parseDouble(row[3]);
+            this.lastLagMillis = lag;
+            this.maxLagMillis = Math.max(this.maxLagMillis, lag);
+            this.totalLagMillis += lag;
+            ++this.changes;
+         }
+         expireGaps();
+      }
+   }//end poll
+
+   /**
+    * Returns the open gaps as " OR changeNumber BETWEEN a AND b" clauses,
+    * one per run of consecutive numbers.
+    */
+   private String gapRanges() {
+      StringBuilder sb = new StringBuilder();
+      Long first = null, last = null;
+      for (Long n : this.gaps.keySet()) {
+         if (last != null && n == last + 1) {
+            last = n;
+            continue;
+         }
+         if (first != null)
+            sb.append(" OR changeNumber BETWEEN ").append(first).append(" AND ").append(last);
+         first = last = n;
+      }
+      if (first != null)
+         sb.append(" OR changeNumber BETWEEN ").append(first).append(" AND ").append(last);
+      return sb.toString();
+   }//end gapRanges
+
+   /**
+    * Drops gaps open for longer than GAP_MILLIS. Their changes may still
+    * commit later, so the caches are rebuilt, at most once per
+    * GAP_RESYNC_MILLIS.
+    */
+   private void expireGaps() throws SQLException {
+      long now = System.currentTimeMillis();
+      for (Iterator<Long> it = this.gaps.values().iterator(); it.hasNext(); ) {
+         if (now - it.next() > GAP_MILLIS) {
+            it.remove();
+            this.gapResyncDue = true;
+         }
+      }
+      if (this.gapResyncDue && now - this.lastResync >= GAP_RESYNC_MILLIS)
+         resyncAll();
+   }//end expireGaps
+
+   private void resyncAll() throws SQLException {
+      for (Cache cache : this.caches)
+         cache.resync(this.conn);
+      ++this.resyncs;
+      this.gapResyncDue = false;
+      this.lastResync = System.currentTimeMillis();
+   }//end resyncAll
+
+   /**
+    * Describes the listener's counters and notification lag.
+    */
+   public synchronized String metrics() {
+      return "notifications received: " + this.notifications + "\n"
+         + "changes applied:        " + this.changes + "\n"
+         + "full resyncs:           " + this.resyncs + "\n"
+         + "reconnects:             " + this.reconnects + "\n"
+         + "open gaps:              " + this.gaps.size() + "\n"
+         + String.format("lag last/avg/max (ms): %.1f / %.1f / %.1f%n", this.lastLagMillis,
+                         this.changes == 0 ? 0.0 : this.totalLagMillis / this.changes, this.maxLagMillis);
+   }//end metrics
+
+   private void closeQuietly() {
+      try {
+         if (this.conn != null)
+            this.conn.close();
+      }catch (SQLException e) {
+         // ignored.
+      }
+      this.conn = null;
+   }//end closeQuietly
+
+}//end ChangeListener
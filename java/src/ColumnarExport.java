@@ -0,0 +1,829 @@
+/*
+ * Columnar export/import of the retail dataset
+ * ============================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.io.File;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.DataFormatException;
+
+
+/**
+ * Moves the retail tables between databases as compact typed column files
+ * instead of CSV.
+ *
+ * Each table becomes one <table>.rcol file: a header naming every column and
+ * its type, then blocks of up to BLOCK_ROWS rows. Inside a block every column
+ * is stored contiguously: keys and timestamps as zig-zag varint deltas,
+ * product and store names through a per-block dictionary, coordinates as
+ * scaled integers. Each block is deflated unless that does not make it
+ * smaller. Files are written through a FileChannel and read through a
+ * read-only memory mapping; uncompressed blocks are decoded in place.
+ *
+ * usage:
+ *    ColumnarExport export <dbname> <port> <user> <dir>
+ *    ColumnarExport import <dbname> <port> <user> <dir>
+ *    ColumnarExport verify <csvDir> <outDir>
+ *
+ * verify encodes the CSV files of data/, decodes them again, checks every
+ * value round-trips and compares sizes and timings with the CSV files. It
+ * also round-trips sub-second timestamps through java.sql.Timestamp, the
+ * type export and import exchange with JDBC.
+ */
+public class ColumnarExport {
+
+   private static final int MAGIC = 0x52434f4c; // "RCOL"
+   // version 2 stores timestamps in microseconds instead of seconds
+   private static final byte VERSION = 2;
+   private static final int BLOCK_ROWS = 8192;
+   private static final byte RAW = 0;
+   private static final byte DEFLATED = 1;
+
+   /**
+    * Column types. Every value is a Long, Double or String, or null.
+    */
+   enum Type {
+      ID,         // increasing integer key, delta encoded
+      INT,        // integer, zig-zag varint
+      DICT,       // repetitive string, dictionary encoded
+      STRING,     // string stored as is
+      DOUBLE,     // 8 byte float
+      DECIMAL,    // decimal(n,6) stored as millionths
+      TIMESTAMP,  // microseconds since the epoch, delta encoded
+      DATE        // days since the epoch, delta encoded
+   }
+
+   static class Column {
+      final String name;
+      final Type type;
+
+      Column(String name, Type type) {
+         this.name = name;
+         this.type = type;
+      }
+   }//end Column
+
+   static class Table {
+      final String name;
+      final String csv;
+      final String key;
+      final Column[] columns;
+
+      Table(String name, String csv, String key, Column... columns) {
+         this.name = name;
+         this.csv = csv;
+         this.key = key;
+         this.columns = columns;
+      }
+   }//end Table
+
+   private static Column col(String name, Type type) {
+      return new Column(name, type);
+   }
+
+   // the tables of create_tables.sql in load order, columns as in the CSVs
+   static final Table[] TABLES = {
+      new Table("Users", "users.csv", "userID",
+         col("userID", Type.ID), col("name", Type.DICT), col("password", Type.STRING),
+         col("latitude", Type.DECIMAL), col("longitude", Type.DECIMAL), col("type", Type.DICT)),
+      new Table("Store", "stores.csv", "storeID",
+         col("storeID", Type.ID), col("name", Type.DICT), col("latitude", Type.DECIMAL),
+         col("longitude", Type.DECIMAL), col("managerID", Type.INT), col("dateEstablished", Type.DATE)),
+      new Table("Product", "products.csv", "storeID, productName",
+         col("storeID", Type.ID), col("productName", Type.DICT), col("numberOfUnits", Type.INT),
+         col("pricePerUnit", Type.DOUBLE)),
+      new Table("Warehouse", "warehouse.csv", "WarehouseID",
+         col("WarehouseID", Type.ID), col("area", Type.INT), col("latitude", Type.DECIMAL),
+         col("longitude", Type.DECIMAL)),
+      new Table("Orders", "orders.csv", "orderNumber",
+         col("orderNumber", Type.ID), col("customerID", Type.INT), col("storeID", Type.INT),
+         col("productName", Type.DICT), col("unitsOrdered", Type.INT), col("orderTime", Type.TIMESTAMP)),
+      new Table("ProductSupplyRequests", "productSupplyRequests.csv", "requestNumber",
+         col("requestNumber", Type.ID), col("managerID", Type.INT), col("warehouseID", Type.INT),
+         col("storeID", Type.INT), col("productName", Type.DICT), col("unitsRequested", Type.INT)),
+      new Table("ProductUpdates", "productUpdates.csv", "updateNumber",
+         col("updateNumber", Type.ID), col("managerID", Type.INT), col("storeID", Type.INT),
+         col("productName", Type.DICT), col("updatedOn", Type.TIMESTAMP))
+   };
+
+   // serial columns whose sequence must follow an import
+   private static final String[][] SEQUENCES = {
+      { "Users", "userID", "users_userID_seq" },
+      { "Orders", "orderNumber", "orders_orderNumber_seq" },
+      { "ProductSupplyRequests", "requestNumber", "productsupplyrequests_requestNumber_seq" },
+      { "ProductUpdates", "updateNumber", "productupdates_updateNumber_seq" }
+   };
+
+   // ---------------------------------------------------------------------
+   // encoding
+
+   /**
+    * Growable byte buffer with varint helpers.
+    */
+   static class Out {
+      byte[] buf = new byte[1 << 16];
+      int len = 0;
+
+      void ensure(int n) {
+         if (this.len + n > this.buf.length) {
+            byte[] bigger = new byte[Math.max(this.buf.length * 2, this.len + n)];
+            System.arraycopy(this.buf, 0, bigger, 0, this.len);
+            this.buf = bigger;
+         }
+      }
+
+      void put(byte b) {
+         ensure(1);
+         this.buf[this.len++] = b;
+      }
+
+      void putBytes(byte[] b) {
+         ensure(b.length);
+         System.arraycopy(b, 0, this.buf, this.len, b.length);
+         this.len += b.length;
+      }
+
+      void putVarLong(long v) {
+         ensure(10);
+         while ((v & ~0x7FL) != 0) {
+            this.buf[this.len++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+         }
+         this.buf[this.len++] = (byte) v;
+      }
+
+      void putZigZag(long v) {
+         putVarLong((v << 1) ^ (v >> 63));
+      }
+
+      void putDouble(double d) {
+         long bits = Double.doubleToLongBits(d);
+         ensure(8);
+         for (int i = 0; i < 8; ++i)
+            this.buf[this.len++] = (byte) (bits >>> (8 * i));
+      }
+
+      void putString(String s) {
+         byte[] b = s.getBytes(StandardCharsets.UTF_8);
+         putVarLong(b.length);
+         putBytes(b);
+      }
+   }//end Out
+
+   static long getVarLong(ByteBuffer in) {
+      long v = 0;
+      for (int shift = 0; ; shift += 7) {
+         byte b = in.get();
+         v |= (long) (b & 0x7F) << shift;
+         if ((b & 0x80) == 0)
+            return v;
+      }
+   }
+
+   static long getZigZag(ByteBuffer in) {
+      long v = getVarLong(in);
+      return (v >>> 1) ^ -(v & 1);
+   }
+
+   static double getDouble(ByteBuffer in) {
+      long bits = 0;
+      for (int i = 0; i < 8; ++i)
+         bits |= (long) (in.get() & 0xFF) << (8 * i);
+      return Double.longBitsToDouble(bits);
+   }
+
+   static String getString(ByteBuffer in) {
+      byte[] b = new byte[(int) getVarLong(in)];
+      in.get(b);
+      return new String(b, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Appends one column of a block: a null bitmap flag (and bitmap), then
+    * the non-null values.
+    */
+   static void encodeColumn(Out out, Column c, List<Object[]> rows, int idx) {
+      int n = rows.size();
+      boolean hasNulls = false;
+      for (Object[] r : rows)
+         hasNulls |= r[idx] == null;
+      out.put((byte) (hasNulls ? 1 : 0));
+      if (hasNulls) {
+         byte[] bitmap = new byte[(n + 7) / 8];
+         for (int i = 0; i < n; ++i)
+            if (rows.get(i)[idx] != null)
+               bitmap[i >> 3] |= 1 << (i & 7);
+         out.putBytes(bitmap);
+      }
+      switch (c.type) {
+         case ID: case TIMESTAMP: case DATE: {
+            long prev = 0;
+            for (Object[] r : rows) {
+               if (r[idx] == null)
+                  continue;
+               long v = (Long) r[idx];
+               out.putZigZag(v - prev);
+               prev = v;
+            }
+            break;
+         }
+         case INT: case DECIMAL:
+            for (Object[] r : rows)
+               if (r[idx] != null)
+                  out.putZigZag((Long) r[idx]);
+            break;
+         case DOUBLE:
+            for (Object[] r : rows)
+               if (r[idx] != null)
+                  out.putDouble((Double) r[idx]);
+            break;
+         case STRING:
+            for (Object[] r : rows)
+               if (r[idx] != null)
+                  out.putString((String) r[idx]);
+            break;
+         case DICT: {
+            Map<String, Integer> codes = new HashMap<String, Integer>();
+            List<String> dict = new ArrayList<String>();
+            for (Object[] r : rows) {
+               if (r[idx] != null && !codes.containsKey(r[idx])) {
+                  codes.put((String) r[idx], dict.size());
+                  dict.add((String) r[idx]);
+               }
+            }
+            out.putVarLong(dict.size());
+            for (String s : dict)
+               out.putString(s);
+            for (Object[] r : rows)
+               if (r[idx] != null)
+                  out.putVarLong(codes.get(r[idx]));
+            break;
+         }
+      }
+   }//end encodeColumn
+
+   /**
+    * Reads one column of a block into the given rows.
+    */
+   static void decodeColumn(ByteBuffer in, Column c, Object[][] rows, int n, int idx) {
+      boolean[] present = new boolean[n];
+      if (in.get() == 1) {
+         byte[] bitmap = new byte[(n + 7) / 8];
+         in.get(bitmap);
+         for (int i = 0; i < n; ++i)
+            present[i] = (bitmap[i >> 3] & (1 << (i & 7))) != 0;
+      }
+      else {
+         Arrays.fill(present, true);
+      }
+      switch (c.type) {
+         case ID: case TIMESTAMP: case DATE: {
+            long prev = 0;
+            for (int i = 0; i < n; ++i) {
+               if (!present[i])
+                  continue;
+               prev += getZigZag(in);
+               rows[i][idx] = prev;
+            }
+            break;
+         }
+         case INT: case DECIMAL:
+            for (int i = 0; i < n; ++i)
+               if (present[i])
+                  rows[i][idx] = getZigZag(in);
+            break;
+         case DOUBLE:
+            for (int i = 0; i < n; ++i)
+               if (present[i])
+                  rows[i][idx] = getDouble(in);
+            break;
+         case STRING:
+            for (int i = 0; i < n; ++i)
+               if (present[i])
+                  rows[i][idx] = getString(in);
+            break;
+         case DICT: {
+            String[] dict = new String[(int) getVarLong(in)];
+            for (int d = 0; d < dict.length; ++d)
+               dict[d] = getString(in);
+            for (int i = 0; i < n; ++i)
+               if (present[i])
+                  rows[i][idx] = dict[(int) getVarLong(in)];
+            break;
+         }
+      }
+   }//end decodeColumn
+
+   // ---------------------------------------------------------------------
+   // files
+
+   /**
+    * Writes rows to a column file, one block at a time.
+    */
+   static class Writer {
+      private final FileChannel channel;
+      private final RandomAccessFile file;
+      private final Column[] columns;
+      private final List<Object[]> rows = new ArrayList<Object[]>();
+      private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      private byte[] packed = new byte[1 << 16];
+
+      Writer(File f, Column[] columns) throws IOException {
+         f.delete();
+         this.file = new RandomAccessFile(f, "rw");
+         this.channel = this.file.getChannel();
+         this.columns = columns;
+         Out header = new Out();
+         ByteBuffer magic = ByteBuffer.allocate(5).putInt(MAGIC).put(VERSION);
+         header.putBytes(magic.array());
+         header.putVarLong(columns.length);
+         for (Column c : columns) {
+            header.putString(c.name);
+            header.put((byte) c.type.ordinal());
+         }
+         writeFully(ByteBuffer.wrap(header.buf, 0, header.len));
+      }
+
+      void write(Object[] row) throws IOException {
+         this.rows.add(row);
+         if (this.rows.size() == BLOCK_ROWS)
+            flushBlock();
+      }
+
+      /**
+       * Block layout: row count, codec, raw length, stored length, bytes.
+       */
+      private void flushBlock() throws IOException {
+         if (this.rows.isEmpty())
+            return;
+         Out raw = new Out();
+         for (int i = 0; i < this.columns.length; ++i)
+            encodeColumn(raw, this.columns[i], this.rows, i);
+
+         if (this.packed.length < raw.len + 64)
+            this.packed = new byte[raw.len + 64];
+         this.deflater.reset();
+         this.deflater.setInput(raw.buf, 0, raw.len);
+         this.deflater.finish();
+         int packedLen = 0;
+         while (!this.deflater.finished() && packedLen < raw.len)
+            packedLen += this.deflater.deflate(this.packed, packedLen, this.packed.length - packedLen);
+         boolean deflated = this.deflater.finished() && packedLen < raw.len;
+
+         ByteBuffer head = ByteBuffer.allocate(13);
+         head.putInt(this.rows.size()).put(deflated ? DEFLATED : RAW)
+             .putInt(raw.len).putInt(deflated ? packedLen : raw.len);
+         head.flip();
+         writeFully(head);
+         writeFully(deflated ? ByteBuffer.wrap(this.packed, 0, packedLen) : ByteBuffer.wrap(raw.buf, 0, raw.len));
+         this.rows.clear();
+      }//end flushBlock
+
+      private void writeFully(ByteBuffer b) throws IOException {
+         while (b.hasRemaining())
+            this.channel.write(b);
+      }
+
+      void close() throws IOException {
+         flushBlock();
+         this.deflater.end();
+         this.channel.force(false);
+         this.channel.close();
+         this.file.close();
+      }
+   }//end Writer
+
+   /**
+    * Reads a column file through a read-only memory mapping.
+    */
+   static class Reader {
+      final Column[] columns;
+      private final MappedByteBuffer map;
+      private final Inflater inflater = new Inflater();
+      private byte[] packed = new byte[0];
+      private byte[] raw = new byte[0];
+      private Object[][] block = new Object[0][];
+      private int blockRows = 0;
+      private int pos = 0;
+
+      Reader(File f) throws IOException {
+         RandomAccessFile file = new RandomAccessFile(f, "r");
+         FileChannel channel = file.getChannel();
+         this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         // the mapping stays valid after the channel is closed
+         channel.close();
+         file.close();
+         if (this.map.getInt() != MAGIC || this.map.get() != VERSION)
+            throw new IOException(f + " is not a column file");
+         this.columns = new Column[(int) getVarLong(this.map)];
+         for (int i = 0; i < this.columns.length; ++i)
+            this.columns[i] = new Column(getString(this.map), Type.values()[this.map.get()]);
+      }
+
+      /**
+       * Returns the next row, or null at the end of the file.
+       */
+      Object[] next() throws IOException {
+         if (this.pos == this.blockRows) {
+            if (!this.map.hasRemaining())
+               return null;
+            readBlock();
+         }
+         return this.block[this.pos++];
+      }
+
+      private void readBlock() throws IOException {
+         int n = this.map.getInt();
+         byte codec = this.map.get();
+         int rawLen = this.map.getInt();
+         int storedLen = this.map.getInt();
+         ByteBuffer in;
+         if (codec == RAW) {
+            // decode straight from the mapped file
+            in = this.map.slice();
+            in.limit(storedLen);
+         }
+         else {
+            if (this.packed.length < storedLen)
+               this.packed = new byte[storedLen];
+            if (this.raw.length < rawLen)
+               this.raw = new byte[rawLen];
+            this.map.duplicate().get(this.packed, 0, storedLen);
+            this.inflater.reset();
+            this.inflater.setInput(this.packed, 0, storedLen);
+            try {
+               if (this.inflater.inflate(this.raw, 0, rawLen) != rawLen)
+                  throw new IOException("Truncated block");
+            }catch (DataFormatException e) {
+               throw new IOException(e.getMessage());
+            }
+            in = ByteBuffer.wrap(this.raw, 0, rawLen);
+         }
+         this.map.position(this.map.position() + storedLen);
+
+         if (this.block.length < n)
+            this.block = new Object[n][];
+         for (int i = 0; i < n; ++i)
+            this.block[i] = new Object[this.columns.length];
+         for (int i = 0; i < this.columns.length; ++i)
+            decodeColumn(in, this.columns[i], this.block, n, i);
+         this.blockRows = n;
+         this.pos = 0;
+      }//end readBlock
+
+      void close() {
+         this.inflater.end();
+      }
+   }//end Reader
+
+   // ---------------------------------------------------------------------
+   // conversions at the CSV and JDBC edges
+
+   private static final DateTimeFormatter CSV_DATE = DateTimeFormatter.ofPattern("M/d/yyyy");
+   private static final DateTimeFormatter CSV_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+   // Postgres timestamps have microsecond precision
+   static long toMicros(LocalDateTime t) {
+      return t.toEpochSecond(ZoneOffset.UTC) * 1000000L + t.getNano() / 1000;
+   }
+
+   static LocalDateTime fromMicros(long micros) {
+      return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1000000L),
+                                         (int) Math.floorMod(micros, 1000000L) * 1000, ZoneOffset.UTC);
+   }
+
+   static Object fromCsv(Type type, String s) {
+      if (s.length() == 0)
+         return null;
+      switch (type) {
+         case ID: case INT:
+            return Long.parseLong(s.trim());
+         case DOUBLE:
+            return Double.parseDouble(s.trim());
+         case DECIMAL:
+            return new BigDecimal(s.trim()).setScale(6).unscaledValue().longValue();
+         case TIMESTAMP:
+            return toMicros(LocalDateTime.parse(s.trim(), CSV_TIMESTAMP));
+         case DATE:
+            return LocalDate.parse(s.trim(), CSV_DATE).toEpochDay();
+         default:
+            return s;
+      }
+   }//end fromCsv
+
+   static Object fromResultSet(Type type, ResultSet rs, int i) throws SQLException {
+      Object v;
+      switch (type) {
+         case ID: case INT:
+            v = rs.getLong(i);
+            break;
+         case DOUBLE:
+            v = rs.getDouble(i);
+            break;
+         case DECIMAL: {
+            BigDecimal d = rs.getBigDecimal(i);
+            v = d == null ? null : (Object) d.setScale(6).unscaledValue().longValue();
+            break;
+         }
+         case TIMESTAMP: {
+            Timestamp t = rs.getTimestamp(i);
+            v = t == null ? null : (Object) toMicros(t.toLocalDateTime());
+            break;
+         }
+         case DATE: {
+            java.sql.Date d = rs.getDate(i);
+            v = d == null ? null : (Object) d.toLocalDate().toEpochDay();
+            break;
+         }
+         default: {
+            // char(n) columns come back blank padded
+            String s = rs.getString(i);
+            v = s == null ? null : s.trim();
+         }
+      }
+      return rs.wasNull() ? null : v;
+   }//end fromResultSet
+
+   static void toStatement(Type type, PreparedStatement ps, int i, Object v) throws SQLException {
+      if (v == null) {
+         ps.setNull(i, type == Type.DATE ? java.sql.Types.DATE : java.sql.Types.VARCHAR);
+         return;
+      }
+      switch (type) {
+         case ID: case INT:
+            ps.setLong(i, (Long) v);
+            break;
+         case DOUBLE:
+            ps.setDouble(i, (Double) v);
+            break;
+         case DECIMAL:
+            ps.setBigDecimal(i, BigDecimal.valueOf((Long) v, 6));
+            break;
+         case TIMESTAMP:
+            ps.setTimestamp(i, Timestamp.valueOf(fromMicros((Long) v)));
+            break;
+         case DATE:
+            ps.setDate(i, java.sql.Date.valueOf(LocalDate.ofEpochDay((Long) v)));
+            break;
+         default:
+            ps.setString(i, (String) v);
+      }
+   }//end toStatement
+
+   static List<Object[]> readCsv(File f, Table t) throws IOException {
+      List<Object[]> rows = new ArrayList<Object[]>();
+      BufferedReader reader = new BufferedReader(new FileReader(f));
+      reader.readLine(); // header
+      String line;
+      while ((line = reader.readLine()) != null) {
+         if (line.length() == 0)
+            continue;
+         String[] fields = line.split(",", -1);
+         Object[] row = new Object[t.columns.length];
+         for (int i = 0; i < row.length; ++i)
+            row[i] = fromCsv(t.columns[i].type, i < fields.length ? fields[i] : "");
+         rows.add(row);
+      }
+      reader.close();
+      return rows;
+   }//end readCsv
+
+   // ---------------------------------------------------------------------
+   // commands
+
+   /**
+    * Writes every table to a column file. Rows are fetched through a
+    * server-side cursor, BLOCK_ROWS at a time, so a table never has to fit
+    * in memory; this driver does not implement setFetchSize, and a cursor
+    * only lives inside a transaction.
+    */
+   static void export(Connection conn, File dir) throws SQLException, IOException {
+      dir.mkdirs();
+      conn.setAutoCommit(false);
+      try {
+         exportTables(conn, dir);
+         conn.commit();
+      }catch (SQLException e) {
+         conn.rollback();
+         throw e;
+      }finally {
+         conn.setAutoCommit(true);
+      }
+   }//end export
+
+   private static void exportTables(Connection conn, File dir) throws SQLException, IOException {
+      for (Table t : TABLES) {
+         long start = System.nanoTime();
+         StringBuilder cols = new StringBuilder();
+         for (Column c : t.columns)
+            cols.append(cols.length() == 0 ? "" : ", ").append(c.name);
+         Statement stmt = conn.createStatement();
+         stmt.executeUpdate("DECLARE export_rows NO SCROLL CURSOR FOR SELECT " + cols
+                            + " FROM " + t.name + " ORDER BY " + t.key);
+         File f = new File(dir, t.name + ".rcol");
+         Writer w = new Writer(f, t.columns);
+         long count = 0;
+         int fetched;
+         do {
+            ResultSet rs = stmt.executeQuery("FETCH FORWARD " + BLOCK_ROWS + " FROM export_rows");
+            for (fetched = 0; rs.next(); ++fetched) {
+               Object[] row = new Object[t.columns.length];
+               for (int i = 0; i < row.length; ++i)
+                  row[i] = fromResultSet(t.columns[i].type, rs, i + 1);
+               w.write(row);
+            }
+            rs.close();
+            count += fetched;
+         } while (fetched == BLOCK_ROWS);
+         w.close();
+         stmt.executeUpdate("CLOSE export_rows");
+         stmt.close();
+         System.out.println(String.format("%-22s %10d rows %12d bytes %8.1f ms",
+            t.name, count, f.length(), (System.nanoTime() - start) / 1e6));
+      }
+   }//end exportTables
+
+   /**
+    * Loads every column file into empty tables in one transaction, in
+    * foreign key order, then moves the serial sequences past the loaded keys
+    * and the rows that landed in the default partitions into monthly ones,
+    * as load_data.sql does.
+    */
+   static void importDir(Connection conn, File dir) throws SQLException, IOException {
+      conn.setAutoCommit(false);
+      try {
+         for (Table t : TABLES) {
+            long start = System.nanoTime();
+            Reader r = new Reader(new File(dir, t.name + ".rcol"));
+            StringBuilder cols = new StringBuilder();
+            StringBuilder marks = new StringBuilder();
+            for (Column c : r.columns) {
+               cols.append(cols.length() == 0 ? "" : ", ").append(c.name);
+               marks.append(marks.length() == 0 ? "?" : ", ?");
+            }
+            PreparedStatement ps = conn.prepareStatement(
+               "INSERT INTO " + t.name + " (" + cols + ") VALUES (" + marks + ")");
+            long count = 0;
+            for (Object[] row = r.next(); row != null; row = r.next()) {
+               for (int i = 0; i < row.length; ++i)
+                  toStatement(r.columns[i].type, ps, i + 1, row[i]);
+               ps.addBatch();
+               if (++count % 1000 == 0)
+                  ps.executeBatch();
+            }
+            ps.executeBatch();
+            ps.close();
+            r.close();
+            System.out.println(String.format("%-22s %10d rows %8.1f ms",
+               t.name, count, (System.nanoTime() - start) / 1e6));
+         }
+         Statement stmt = conn.createStatement();
+         for (String[] seq : SEQUENCES) {
+            stmt.executeQuery(String.format("SELECT setval('%s', (SELECT COALESCE(MAX(%s), 0) + 1 FROM %s), false)",
+                                            seq[2], seq[1], seq[0]));
+         }
+         stmt.executeQuery("SELECT partition_default_rows('orders')");
+         stmt.executeQuery("SELECT partition_default_rows('productupdates')");
+         stmt.close();
+         conn.commit();
+      }catch (SQLException e) {
+         conn.rollback();
+         throw e;
+      }finally {
+         conn.setAutoCommit(true);
+      }
+   }//end importDir
+
+   /**
+    * Round-trips every CSV file through a column file and reports sizes and
+    * timings.
+    *
+    * @return true if every value came back unchanged
+    */
+   static boolean verify(File csvDir, File outDir) throws IOException {
+      outDir.mkdirs();
+      boolean ok = true;
+      long csvTotal = 0, colTotal = 0;
+      System.out.println(String.format("%-22s %8s %10s %10s %7s %10s %10s %10s",
+         "table", "rows", "csv bytes", "rcol bytes", "ratio", "csv ms", "write ms", "read ms"));
+      for (Table t : TABLES) {
+         File csv = new File(csvDir, t.csv);
+         long t0 = System.nanoTime();
+         List<Object[]> rows = readCsv(csv, t);
+         long t1 = System.nanoTime();
+         File f = new File(outDir, t.name + ".rcol");
+         Writer w = new Writer(f, t.columns);
+         for (Object[] row : rows)
+            w.write(row);
+         w.close();
+         long t2 = System.nanoTime();
+         Reader r = new Reader(f);
+         List<Object[]> back = new ArrayList<Object[]>();
+         for (Object[] row = r.next(); row != null; row = r.next())
+            back.add(row);
+         r.close();
+         long t3 = System.nanoTime();
+
+         boolean same = back.size() == rows.size();
+         for (int i = 0; same && i < rows.size(); ++i)
+            same = Arrays.equals(rows.get(i), back.get(i));
+         ok &= same;
+         csvTotal += csv.length();
+         colTotal += f.length();
+         System.out.println(String.format("%-22s %8d %10d %10d %6.1fx %10.2f %10.2f %10.2f%s",
+            t.name, rows.size(), csv.length(), f.length(), (double) csv.length() / f.length(),
+            (t1 - t0) / 1e6, (t2 - t1) / 1e6, (t3 - t2) / 1e6, same ? "" : "  MISMATCH"));
+      }
+      System.out.println(String.format("%-22s %8s %10d %10d %6.1fx", "total", "", csvTotal, colTotal,
+                                       (double) csvTotal / colTotal));
+      boolean micros = verifyTimestamps();
+      System.out.println("sub-second timestamps through java.sql.Timestamp" + (micros ? "" : "  MISMATCH"));
+      return ok && micros;
+   }//end verify
+
+   /**
+    * Round-trips timestamps with microseconds, before and after the epoch,
+    * through the conversions of fromResultSet and toStatement and through a
+    * TIMESTAMP column.
+    */
+   static boolean verifyTimestamps() {
+      String[] samples = { "2024-03-05 17:42:09.123456", "2024-03-05 17:42:09.000001",
+                           "1969-12-31 23:59:59.999999", "2038-01-19 03:14:08" };
+      Column c = col("t", Type.TIMESTAMP);
+      List<Object[]> rows = new ArrayList<Object[]>();
+      boolean ok = true;
+      for (String sample : samples) {
+         long micros = toMicros(Timestamp.valueOf(sample).toLocalDateTime());
+         ok &= Timestamp.valueOf(fromMicros(micros)).equals(Timestamp.valueOf(sample));
+         rows.add(new Object[] { micros });
+      }
+      Out out = new Out();
+      encodeColumn(out, c, rows, 0);
+      Object[][] back = new Object[rows.size()][1];
+      decodeColumn(ByteBuffer.wrap(out.buf, 0, out.len), c, back, rows.size(), 0);
+      for (int i = 0; i < rows.size(); ++i)
+         ok &= rows.get(i)[0].equals(back[i][0]);
+      return ok;
+   }//end verifyTimestamps
+
+   public static void main(String[] args) throws Exception {
+      if (args.length == 3 && args[0].equals("verify")) {
+         if (!verify(new File(args[1]), new File(args[2])))
+            System.exit(1);
+         return;
+      }
+      if (args.length != 5 || !(args[0].equals("export") || args[0].equals("import"))) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ColumnarExport.class.getName() +
+            " export|import <dbname> <port> <user> <dir>\n" +
+            "       java [-classpath <classpath>] " +
+            ColumnarExport.class.getName() +
+            " verify <csvDir> <outDir>");
+         System.exit(2);
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      String url = "jdbc:postgresql://localhost:" + args[2] + "/" + args[1];
+      Connection conn = DriverManager.getConnection(url, args[3], "");
+      try {
+         if (args[0].equals("export"))
+            export(conn, new File(args[4]));
+         else
+            importDir(conn, new File(args[4]));
+      }finally {
+         conn.close();
+      }
+   }//end main
+
+}//end ColumnarExport
@@ -0,0 +1,233 @@
+/*
+ * Read/write connection routing for the Retail user interface
+ * ===========================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+
+
+/**
+ * Routes read-only statements to streaming replicas and everything else to
+ * the primary connection.
+ *
+ * Replicas are configured with system properties so the command line of the
+ * Retail program stays the same:
+ *
+ *    -Dretail.replicas=localhost:5433,localhost:5434
+ *    -Dretail.maxReplicaLagSeconds=5
+ *    -Dretail.stickySeconds=30
+ *
+ * After a session writes, its reads stay on the primary for stickySeconds so
+ * a user always sees their own order or update. A replica whose replay lag is
+ * above maxReplicaLagSeconds is skipped until its next lag check, one which
+ * cannot be reached is backed off for longer; when no replica qualifies the
+ * primary serves the read.
+ */
+public class ConnectionRouter {
+
+   // how often a replica's replay lag is re-measured.
+   private static final long LAG_CHECK_INTERVAL_MILLIS = 1000;
+   // how long an unreachable replica is left alone, doubled per failure.
+   private static final long RETRY_MIN_MILLIS = 10000;
+   private static final long RETRY_MAX_MILLIS = 300000;
+
+   /**
+    * One replica endpoint together with its last measured replay lag.
+    */
+   private static class Replica {
+      final String url;
+      Connection connection = null;
+      double lagSeconds = 0.0;
+      long lastChecked = 0;
+      boolean healthy = false;
+      // while unreachable: when to try again and the current back off.
+      long retryAt = 0;
+      long retryMillis = 0;
+
+      Replica(String url) {
+         this.url = url;
+      }
+   }//end Replica
+
+   private final Connection primary;
+   private final List<Replica> replicas = new ArrayList<Replica>();
+   private final String user;
+   private final String passwd;
+   private final double maxLagSeconds;
+   private final long stickyMillis;
+
+   // time of the last write issued by the current session, 0 if none.
+   private long lastWrite = 0;
+   // round robin position over the replica list.
+   private int next = 0;
+
+   /**
+    * Creates a router over an open primary connection.
+    *
+    * @param primary the connection every write goes to
+    * @param dbname the name of the database on every replica
+    * @param replicaList comma separated host:port list, may be null or empty
+    * @param user the user name used to login to the replicas
+    * @param passwd the user login password
+    * @param maxLagSeconds the replay lag above which a replica is skipped
+    * @param stickySeconds how long reads stay on the primary after a write
+    */
+   public ConnectionRouter(Connection primary, String dbname, String replicaList,
+                           String user, String passwd,
+                           double maxLagSeconds, int stickySeconds) {
+      this.primary = primary;
+      this.user = user;
+      this.passwd = passwd;
+      this.maxLagSeconds = maxLagSeconds;
+      this.stickyMillis = stickySeconds * 1000L;
+      if (replicaList != null) {
+         for (String endpoint : replicaList.split(",")) {
+            endpoint = endpoint.trim();
+            if (endpoint.length() == 0)
+               continue;
+            if (endpoint.indexOf(':') < 0)
+               endpoint = "localhost:" + endpoint;
+            this.replicas.add(new Replica("jdbc:postgresql://" + endpoint + "/" + dbname));
+         }
+      }
+   }//end ConnectionRouter
+
+   /**
+    * Builds a router from the retail.* system properties.
+    */
+   public static ConnectionRouter fromSystemProperties(Connection primary, String dbname,
+                                                       String user, String passwd) {
+      return new ConnectionRouter(primary, dbname,
+         System.getProperty("retail.replicas"), user, passwd,
+         Double.parseDouble(System.getProperty("retail.maxReplicaLagSeconds", "5")),
+         Integer.parseInt(System.getProperty("retail.stickySeconds", "30")));
+   }//end fromSystemProperties
+
+   public Connection primary() {
+      return this.primary;
+   }
+
+   /**
+    * Returns the connection a menu operation should run on.
+    *
+    * @param readOnly true if the current operation only reads
+    * @return a replica connection for eligible reads, the primary otherwise
+    */
+   public synchronized Connection route(boolean readOnly) {
+      if (!readOnly || this.replicas.isEmpty())
+         return this.primary;
+      if (this.lastWrite != 0 && System.currentTimeMillis() - this.lastWrite < this.stickyMillis)
+         return this.primary;
+      for (int i = 0; i < this.replicas.size(); ++i) {
+         Replica r = this.replicas.get((this.next + i) % this.replicas.size());
+         refresh(r);
+         if (r.healthy && r.lagSeconds <= this.maxLagSeconds) {
+            this.next = (this.next + i + 1) % this.replicas.size();
+            return r.connection;
+         }
+      }
+      return this.primary;
+   }//end route
+
+   /**
+    * Records that the current session wrote to the primary.
+    */
+   public synchronized void markWrite() {
+      this.lastWrite = System.currentTimeMillis();
+   }
+
+   /**
+    * Ends the read-your-writes window, e.g. when the user logs out.
+    */
+   public synchronized void endSession() {
+      this.lastWrite = 0;
+   }
+
+   /**
+    * Re-measures the replay lag of a replica if its last check is stale,
+    * connecting on demand. A replica that has replayed the primary's
+    * current WAL position has no lag; otherwise its lag is the age of the
+    * last transaction it replayed, so a standby that stopped streaming
+    * grows stale and is skipped. A server that is not in recovery never
+    * receives the primary's writes and is never used.
+    */
+   private void refresh(Replica r) {
+      long now = System.currentTimeMillis();
+      if (now - r.lastChecked < LAG_CHECK_INTERVAL_MILLIS || now < r.retryAt)
+         return;
+      r.lastChecked = now;
+      try {
+         if (r.connection == null) {
+            r.connection = DriverManager.getConnection(r.url, this.user, this.passwd);
+            r.connection.setReadOnly(true);
+         }
+         Statement stmt = this.primary.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT pg_current_wal_lsn()");
+         String primaryLsn = rs.next() ? rs.getString(1) : null;
+         stmt.close();
+         stmt = r.connection.createStatement();
+         rs = stmt.executeQuery(
+            "SELECT CASE WHEN NOT pg_is_in_recovery() THEN NULL "
+            + "WHEN pg_last_wal_replay_lsn() >= '" + primaryLsn + "'::pg_lsn THEN 0 "
+            + "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END");
+         rs.next();
+         r.lagSeconds = rs.getDouble(1);
+         boolean eligible = !rs.wasNull();
+         stmt.close();
+         if (!eligible)
+            throw new SQLException("not a streaming standby of the primary");
+         r.healthy = true;
+         r.retryMillis = 0;
+      }catch (SQLException e) {
+         r.retryMillis = Math.min(RETRY_MAX_MILLIS, Math.max(RETRY_MIN_MILLIS, r.retryMillis * 2));
+         r.retryAt = now + r.retryMillis;
+         System.err.println("Replica " + r.url + " unavailable, retrying in "
+                            + r.retryMillis / 1000 + "s: " + e.getMessage());
+         r.healthy = false;
+         closeQuietly(r);
+      }
+   }//end refresh
+
+   /**
+    * Describes every replica's state, for diagnostics.
+    */
+   public synchronized String status() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("primary\n");
+      for (Replica r : this.replicas) {
+         sb.append(r.url)
+           .append(r.healthy ? "  lag=" + r.lagSeconds + "s" : "  unavailable")
+           .append('\n');
+      }
+      return sb.toString();
+   }//end status
+
+   /**
+    * Closes every replica connection. The primary is owned by Retail.
+    */
+   public synchronized void close() {
+      for (Replica r : this.replicas)
+         closeQuietly(r);
+   }
+
+   private static void closeQuietly(Replica r) {
+      try {
+         if (r.connection != null)
+            r.connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }
+      r.connection = null;
+   }//end closeQuietly
+
+}//end ConnectionRouter
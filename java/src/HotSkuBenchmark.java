@@ -0,0 +1,160 @@
+/*
+ * Hot SKU concurrency benchmark
+ * =============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Measures reservations per second on one (storeID, productName) for the
+ * row-locking path of placeOrder against the hot SKU counters.
+ *
+ * Each run gives every thread its own connection and reserves one unit at a
+ * time until the run time is over. The Orders insert is left out of both
+ * paths so only the cost of reserving stock is compared. The product's units
+ * are raised for the runs and restored afterwards.
+ */
+public class HotSkuBenchmark {
+
+   private static final int BENCH_UNITS = 1000000000;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 5) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HotSkuBenchmark.class.getName() +
+            " <dbname> <port> <user> <storeID> <productName> [threads] [seconds]");
+         return;
+      }
+      Class.forName("org.postgresql.Driver").newInstance();
+      final String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      final String user = args[2];
+      final int storeID = Integer.parseInt(args[3]);
+      final String productName = args[4];
+      int threads = args.length > 5 ? Integer.parseInt(args[5]) : 16;
+      long seconds = args.length > 6 ? Long.parseLong(args[6]) : 10;
+      final String where = " WHERE storeID = '" + storeID + "' AND productName = '" + productName + "'";
+
+      Connection admin = DriverManager.getConnection(url, user, "");
+      Statement stmt = admin.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT numberOfUnits FROM Product" + where);
+      if (!rs.next()) {
+         System.err.println("No product " + productName + " in store " + storeID);
+         return;
+      }
+      int original = rs.getInt(1);
+
+      try {
+         // row-locking path: one guarded UPDATE per reservation
+         stmt.executeUpdate("UPDATE Product SET numberOfUnits = " + BENCH_UNITS + where);
+         final long[] rowLocking = run(threads, seconds, new Reserver() {
+            public Object open() throws SQLException {
+               return DriverManager.getConnection(url, user, "");
+            }
+            public boolean reserve(Object state) throws SQLException {
+               Statement s = ((Connection) state).createStatement();
+               int n = s.executeUpdate("UPDATE Product SET numberOfUnits = numberOfUnits - 1" + where
+                                       + " AND numberOfUnits >= 1");
+               s.close();
+               return n == 1;
+            }
+            public void close(Object state) throws SQLException {
+               ((Connection) state).close();
+            }
+         });
+         report("row locking", rowLocking, seconds);
+
+         // hot SKU path: striped counters, flushed in the background
+         stmt.executeUpdate("UPDATE Product SET numberOfUnits = " + BENCH_UNITS + where);
+         final HotSkuCounters counters = new HotSkuCounters(url, user, "", 100);
+         counters.enable(storeID, productName);
+         counters.start();
+         final long[] hot = run(threads, seconds, new Reserver() {
+            public Object open() {
+               return null;
+            }
+            public boolean reserve(Object state) {
+               return counters.reserve(storeID, productName, 1);
+            }
+            public void close(Object state) {
+            }
+         });
+         counters.stop();
+         report("hot SKU", hot, seconds);
+
+         rs = stmt.executeQuery("SELECT numberOfUnits FROM Product" + where);
+         rs.next();
+         int left = rs.getInt(1);
+         System.out.println("Product units after flush: " + left + ", expected " + (BENCH_UNITS - hot[0])
+                            + (left == BENCH_UNITS - hot[0] ? "  ok" : "  MISMATCH"));
+         System.out.println(String.format("speedup: %.1fx", (double) hot[0] / Math.max(1, rowLocking[0])));
+      }finally {
+         stmt.executeUpdate("UPDATE Product SET numberOfUnits = " + original + where);
+         stmt.close();
+         admin.close();
+      }
+   }//end main
+
+   /**
+    * One way of reserving a unit; state is per thread.
+    */
+   private interface Reserver {
+      Object open() throws SQLException;
+      boolean reserve(Object state) throws SQLException;
+      void close(Object state) throws SQLException;
+   }//end Reserver
+
+   /**
+    * Runs the reserver on every thread for the given time.
+    *
+    * @return reservations made and reservations refused
+    */
+   private static long[] run(int threads, long seconds, final Reserver reserver) throws InterruptedException {
+      final AtomicLong made = new AtomicLong();
+      final AtomicLong refused = new AtomicLong();
+      final long deadline = System.currentTimeMillis() + seconds * 1000;
+      Thread[] workers = new Thread[threads];
+      for (int i = 0; i < threads; ++i) {
+         workers[i] = new Thread() {
+            public void run() {
+               try {
+                  Object state = reserver.open();
+                  long ok = 0, no = 0;
+                  while (System.currentTimeMillis() < deadline) {
+                     if (reserver.reserve(state))
+                        ++ok;
+                     else
+                        ++no;
+                  }
+                  reserver.close(state);
+                  made.addAndGet(ok);
+                  refused.addAndGet(no);
+               }catch (SQLException e) {
+                  System.err.println(e.getMessage());
+               }
+            }
+         };
+         workers[i].start();
+      }
+      for (Thread t : workers)
+         t.join();
+      return new long[] { made.get(), refused.get() };
+   }//end run
+
+   private static void report(String name, long[] result, long seconds) {
+      System.out.println(String.format("%-12s %12d reservations  %12.0f reservations/sec  %d refused",
+                                       name, result[0], (double) result[0] / seconds, result[1]));
+   }
+
+}//end HotSkuBenchmark
@@ -0,0 +1,518 @@
+/*
+ * Hot SKU stock counters for the Retail user interface
+ * ====================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Opt-in in-memory inventory for products that many customers order at the
+ * same time, e.g. during a flash sale.
+ *
+ * The units of a hot (storeID, productName) are spread over striped atomic
+ * counters, so concurrent orders reserve units with a compare-and-set on
+ * their own stripe instead of all waiting for the Product row lock. Reserved
+ * units accumulate as a pending delta that a background thread subtracts
+ * from Product.numberOfUnits in one batched UPDATE per flush interval. A
+ * reservation can only take units a stripe holds, so stock never goes below
+ * zero.
+ *
+ * Hot SKU mode serves a single instance: enable() takes a Postgres advisory
+ * lock on the product, and while it is held every other instance refuses
+ * orders for it (see isHotElsewhere). Should
+ * Product still end up below a flushed delta, e.g. after an update from
+ * another instance, the row is set to 0, the shortfall is logged and counted
+ * as oversold, and the counters are resynced.
+ *
+ * Hot SKUs are configured with system properties:
+ *
+ *    -Dretail.hotSkus=1:Pepsi,2:7up
+ *    -Dretail.hotSkuFlushMillis=500
+ */
+public class HotSkuCounters implements Runnable {
+
+   // number of counters per SKU, a power of two.
+   private static final int STRIPES = 16;
+   // first key of the advisory locks on hot SKUs; the second is hashtext(key)
+   private static final int LOCK_CLASS = 1213418325;
+
+   /**
+    * The counters of one hot SKU.
+    */
+   private static class Sku {
+      final int storeID;
+      final String productName;
+      final AtomicInteger[] stripes = new AtomicInteger[STRIPES];
+      // units reserved in memory but not yet subtracted from Product.
+      final AtomicInteger pending = new AtomicInteger();
+      // reservations share the read lock, redistributing the stripes takes
+      // the write lock.
+      final ReadWriteLock lock = new ReentrantReadWriteLock();
+      // false once another instance holds the product's advisory lock.
+      volatile boolean owned = true;
+      // units flushed that Product did not have.
+      int oversold = 0;
+      // baseline for reconcile(): Product units, last order and oversold
+      // units at the last enable or resync.
+      int baseUnits = 0;
+      long baseOrder = 0;
+      int baseOversold = 0;
+
+      Sku(int storeID, String productName) {
+         this.storeID = storeID;
+         this.productName = productName;
+         for (int i = 0; i < STRIPES; ++i)
+            this.stripes[i] = new AtomicInteger();
+      }
+
+      int available() {
+         int sum = 0;
+         for (AtomicInteger s : this.stripes)
+            sum += s.get();
+         return sum;
+      }
+
+      // spreads units evenly over the stripes, which must be empty.
+      void distribute(int units) {
+         for (int i = 0; i < STRIPES; ++i)
+            this.stripes[i].addAndGet(units / STRIPES + (i < units % STRIPES ? 1 : 0));
+      }
+
+      int drain() {
+         int sum = 0;
+         for (AtomicInteger s : this.stripes)
+            sum += s.getAndSet(0);
+         return sum;
+      }
+   }//end Sku
+
+   private final Map<String, Sku> skus = new ConcurrentHashMap<String, Sku>();
+   private final List<ChangeListener.Cache> caches = new ArrayList<ChangeListener.Cache>();
+   private final String url;
+   private final String user;
+   private final String passwd;
+   private final long flushMillis;
+   private Connection conn = null;
+   private volatile boolean running = false;
+   private Thread thread = null;
+
+   public HotSkuCounters(String url, String user, String passwd, long flushMillis) {
+      this.url = url;
+      this.user = user;
+      this.passwd = passwd;
+      this.flushMillis = flushMillis;
+   }
+
+   /**
+    * Builds the counters from the retail.* system properties.
+    *
+    * @return the counters, or null if no hot SKU is configured
+    */
+   public static HotSkuCounters fromSystemProperties(String url, String user, String passwd) throws SQLException {
+      String list = System.getProperty("retail.hotSkus");
+      if (list == null || list.trim().length() == 0)
+         return null;
+      HotSkuCounters counters = new HotSkuCounters(url, user, passwd,
+         Long.parseLong(System.getProperty("retail.hotSkuFlushMillis", "500")));
+      for (String sku : list.split(",")) {
+         int sep = sku.indexOf(':');
+         try {
+            if (sep < 0)
+               throw new NumberFormatException("expected storeID:productName");
+            counters.enable(Integer.parseInt(sku.substring(0, sep).trim()), sku.substring(sep + 1).trim());
+         }catch (NumberFormatException e) {
+            System.err.println("Hot SKU " + sku.trim() + " not enabled: " + e.getMessage());
+         }catch (SQLException e) {
+            System.err.println("Hot SKU " + sku.trim() + " not enabled: " + e.getMessage());
+         }
+      }
+      counters.start();
+      return counters;
+   }//end fromSystemProperties
+
+   private static String key(int storeID, String productName) {
+      return storeID + ":" + productName.trim();
+   }
+
+   /**
+    * Returns a condition on a Product row that is false while another
+    * instance holds the row's product in hot SKU mode, for the guarded
+    * update of the row-locking order path.
+    *
+    * @param alias the alias of Product in the statement
+    */
+   public static String notHotElsewhere(String alias) {
+      return "pg_try_advisory_xact_lock_shared(" + LOCK_CLASS + ", hashtext(" + alias + ".storeID || ':' || trim("
+         + alias + ".productName)))";
+   }
+
+   /**
+    * Tells whether another instance holds a product in hot SKU mode, to
+    * explain why the guarded update of placeOrder refused it.
+    */
+   public static boolean isHotElsewhere(Connection conn, int storeID, String productName) throws SQLException {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock_shared(" + LOCK_CLASS + ", hashtext('"
+                                       + key(storeID, productName).replace("'", "''") + "'))");
+      boolean free = rs.next() && rs.getBoolean(1);
+      if (free)
+         stmt.executeQuery("SELECT pg_advisory_unlock_shared(" + LOCK_CLASS + ", hashtext('"
+                           + key(storeID, productName).replace("'", "''") + "'))").close();
+      stmt.close();
+      return !free;
+   }//end isHotElsewhere
+
+   /**
+    * Registers a cache to patch after each flush changed Product.
+    */
+   public synchronized void register(ChangeListener.Cache cache) {
+      this.caches.add(cache);
+   }
+
+   /**
+    * Returns the counters' own connection. The advisory locks belong to it,
+    * so a new connection takes them again; a SKU whose lock another
+    * instance took in the meantime stops taking reservations.
+    */
+   private Connection connection() throws SQLException {
+      if (this.conn == null) {
+         this.conn = DriverManager.getConnection(this.url, this.user, this.passwd);
+         for (Sku sku : this.skus.values()) {
+            if (sku.owned && !lock(sku.storeID, sku.productName)) {
+               System.err.println("Hot SKU " + key(sku.storeID, sku.productName)
+                                  + " was taken over by another instance");
+               sku.lock.writeLock().lock();
+               try {
+                  sku.owned = false;
+                  sku.drain();
+               }finally {
+                  sku.lock.writeLock().unlock();
+               }
+            }
+         }
+      }
+      return this.conn;
+   }//end connection
+
+   private boolean lock(int storeID, String productName) throws SQLException {
+      Statement stmt = this.conn.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock(" + LOCK_CLASS + ", hashtext('"
+                                       + key(storeID, productName).replace("'", "''") + "'))");
+      boolean locked = rs.next() && rs.getBoolean(1);
+      stmt.close();
+      return locked;
+   }//end lock
+
+   /**
+    * Moves a product into hot SKU mode, loading its units from Product.
+    *
+    * @throws java.sql.SQLException when the product does not exist or
+    *         another instance holds it in hot SKU mode
+    */
+   public synchronized void enable(int storeID, String productName) throws SQLException {
+      Sku sku = new Sku(storeID, productName.trim());
+      connection();
+      if (!lock(storeID, sku.productName))
+         throw new SQLException("Product " + sku.productName + " of store " + storeID
+                                + " is already hot in another instance");
+      if (!rebase(sku)) {
+         Statement stmt = this.conn.createStatement();
+         stmt.executeQuery("SELECT pg_advisory_unlock(" + LOCK_CLASS + ", hashtext('"
+                           + key(storeID, sku.productName).replace("'", "''") + "'))").close();
+         stmt.close();
+         throw new SQLException("No product " + sku.productName + " in store " + storeID);
+      }
+      sku.distribute(sku.baseUnits);
+      this.skus.put(key(storeID, productName), sku);
+   }//end enable
+
+   /**
+    * Reads a SKU's Product units and the last order number in one
+    * statement and makes them the reconcile() baseline.
+    *
+    * @return false if the product does not exist
+    */
+   private boolean rebase(Sku sku) throws SQLException {
+      Statement stmt = connection().createStatement();
+      ResultSet rs = stmt.executeQuery(
+         "SELECT numberOfUnits, (SELECT COALESCE(MAX(orderNumber), 0) FROM Orders) FROM Product WHERE storeID = '"
+         + sku.storeID + "' AND productName = '" + sku.productName.replace("'", "''") + "'");
+      boolean found = rs.next();
+      sku.baseUnits = found ? rs.getInt(1) : 0;
+      sku.baseOrder = found ? rs.getLong(2) : sku.baseOrder;
+      sku.baseOversold = sku.oversold;
+      stmt.close();
+      return found;
+   }//end rebase
+
+   public boolean isHot(int storeID, String productName) {
+      return this.skus.containsKey(key(storeID, productName));
+   }
+
+   /**
+    * Tells whether this instance lost a hot SKU's advisory lock to another
+    * instance after a reconnect.
+    */
+   public boolean isLost(int storeID, String productName) {
+      Sku sku = this.skus.get(key(storeID, productName));
+      return sku != null && !sku.owned;
+   }
+
+   /**
+    * Reserves units of a hot SKU without touching the database. The calling
+    * thread's own stripe is tried first; if it is short, units are gathered
+    * from the other stripes and given back if there are not enough in total.
+    *
+    * @return true if the units were reserved
+    */
+   public boolean reserve(int storeID, String productName, int units) {
+      Sku sku = this.skus.get(key(storeID, productName));
+      if (sku == null || units <= 0)
+         return false;
+      sku.lock.readLock().lock();
+      try {
+         return reserve(sku, units);
+      }finally {
+         sku.lock.readLock().unlock();
+      }
+   }//end reserve
+
+   private static boolean reserve(Sku sku, int units) {
+      int home = (int) (Thread.currentThread().getId() & (STRIPES - 1));
+      AtomicInteger own = sku.stripes[home];
+      for (int cur = own.get(); cur >= units; cur = own.get()) {
+         if (own.compareAndSet(cur, cur - units)) {
+            sku.pending.addAndGet(units);
+            return true;
+         }
+      }
+      int taken = 0;
+      for (int i = 0; i < STRIPES && taken < units; ++i) {
+         AtomicInteger s = sku.stripes[(home + i) & (STRIPES - 1)];
+         for (int cur = s.get(); cur > 0; cur = s.get()) {
+            int take = Math.min(cur, units - taken);
+            if (s.compareAndSet(cur, cur - take)) {
+               taken += take;
+               break;
+            }
+         }
+      }
+      if (taken < units) {
+         own.addAndGet(taken);
+         return false;
+      }
+      sku.pending.addAndGet(units);
+      return true;
+   }//end reserve
+
+   /**
+    * Gives back units reserved for an order that was not placed.
+    */
+   public void release(int storeID, String productName, int units) {
+      Sku sku = this.skus.get(key(storeID, productName));
+      if (sku == null)
+         return;
+      sku.lock.readLock().lock();
+      try {
+         if (sku.owned)
+            sku.stripes[(int) (Thread.currentThread().getId() & (STRIPES - 1))].addAndGet(units);
+         sku.pending.addAndGet(-units);
+      }finally {
+         sku.lock.readLock().unlock();
+      }
+   }//end release
+
+   /**
+    * Subtracts every pending delta from Product in a single UPDATE joined
+    * to a VALUES list. The orders behind a delta are already placed, so it
+    * is always applied; a row whose units are below its delta is set to 0,
+    * the difference is logged as oversold and the SKU is resynced.
+    */
+   public synchronized void flush() throws SQLException {
+      StringBuilder values = new StringBuilder();
+      int rows = 0;
+      Map<Sku, Integer> deltas = new HashMap<Sku, Integer>();
+      for (Sku sku : this.skus.values()) {
+         int d = sku.pending.getAndSet(0);
+         if (d == 0)
+            continue;
+         deltas.put(sku, d);
+         if (rows++ > 0)
+            values.append(", ");
+         values.append("(").append(sku.storeID).append(", '")
+               .append(sku.productName.replace("'", "''")).append("', ").append(d).append(")");
+      }
+      if (rows == 0)
+         return;
+      String v = "(VALUES " + values + ") AS V(storeID, productName, units)";
+      String match = "P.storeID = V.storeID AND P.productName = V.productName";
+      List<Sku> shortSkus = new ArrayList<Sku>();
+      Connection c = connection();
+      try {
+         c.setAutoCommit(false);
+         Statement stmt = c.createStatement();
+         ResultSet rs = stmt.executeQuery(
+            "SELECT P.storeID, trim(P.productName), V.units - P.numberOfUnits FROM Product P, " + v
+            + " WHERE " + match + " AND P.numberOfUnits < V.units FOR UPDATE OF P");
+         Map<String, Integer> shortfalls = new HashMap<String, Integer>();
+         while (rs.next())
+            shortfalls.put(key(rs.getInt(1), rs.getString(2)), rs.getInt(3));
+         stmt.executeUpdate(
+            "UPDATE Product P SET numberOfUnits = GREATEST(P.numberOfUnits - V.units, 0) FROM " + v
+            + " WHERE " + match);
+         stmt.close();
+         c.commit();
+         c.setAutoCommit(true);
+         for (Sku sku : deltas.keySet()) {
+            Integer missing = shortfalls.get(key(sku.storeID, sku.productName));
+            if (missing != null) {
+               sku.oversold += missing;
+               shortSkus.add(sku);
+               System.err.println("Hot SKU " + key(sku.storeID, sku.productName) + " oversold by "
+                                  + missing + " units, Product set to 0");
+            }
+         }
+      }catch (SQLException e) {
+         // keep the deltas for the next flush
+         for (Map.Entry<Sku, Integer> d : deltas.entrySet())
+            d.getKey().pending.addAndGet(d.getValue());
+         try {
+            c.close();
+         }catch (SQLException ignored) {
+            // the connection is dropped anyway.
+         }
+         this.conn = null;
+         throw e;
+      }
+      for (Sku sku : shortSkus)
+         resync(sku);
+      for (ChangeListener.Cache cache : this.caches) {
+         for (Sku sku : deltas.keySet())
+            cache.onChange(c, "product", key(sku.storeID, sku.productName));
+      }
+   }//end flush
+
+   /**
+    * Reloads a hot SKU's units from Product after they were changed
+    * outside the counters, e.g. by updateProduct.
+    */
+   public synchronized void resync(int storeID, String productName) throws SQLException {
+      Sku sku = this.skus.get(key(storeID, productName));
+      if (sku != null) {
+         flush();
+         resync(sku);
+      }
+   }//end resync
+
+   /**
+    * Redistributes a SKU's stripes from Product and makes Product the new
+    * reconcile() baseline. An order reserved before the resync but inserted
+    * after it is counted against the new baseline.
+    */
+   private void resync(Sku sku) throws SQLException {
+      sku.lock.writeLock().lock();
+      try {
+         sku.drain();
+         rebase(sku);
+         // reservations made since the last flush are still owed
+         if (sku.owned)
+            sku.distribute(Math.max(0, sku.baseUnits - sku.pending.get()));
+      }finally {
+         sku.lock.writeLock().unlock();
+      }
+   }//end resync
+
+   /**
+    * Checks that, for every hot SKU, the units at the baseline minus the
+    * units ordered since then equal the units in Product minus the pending
+    * delta, whose orders are placed but not yet subtracted, minus the
+    * units oversold since the baseline, which a flush could not subtract.
+    *
+    * @return a description of each SKU and whether it reconciles
+    */
+   public synchronized String reconcile() throws SQLException {
+      StringBuilder sb = new StringBuilder();
+      Statement stmt = connection().createStatement();
+      for (Sku sku : this.skus.values()) {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT P.numberOfUnits, (SELECT COALESCE(SUM(O.unitsOrdered), 0) FROM Orders O "
+            + "WHERE O.storeID = P.storeID AND O.productName = P.productName AND O.orderNumber > " + sku.baseOrder + ") "
+            + "FROM Product P WHERE P.storeID = '" + sku.storeID
+            + "' AND P.productName = '" + sku.productName.replace("'", "''") + "'");
+         if (!rs.next())
+            continue;
+         int stored = rs.getInt(1) - sku.pending.get() - (sku.oversold - sku.baseOversold);
+         int expected = sku.baseUnits - rs.getInt(2);
+         sb.append(key(sku.storeID, sku.productName))
+           .append("  product-pending-oversold=").append(stored)
+           .append("  expected=").append(expected)
+           .append("  in memory=").append(sku.available())
+           .append(sku.oversold > 0 ? "  oversold=" + sku.oversold : "")
+           .append(sku.owned ? "" : "  held by another instance")
+           .append(stored == expected ? "  ok" : "  MISMATCH")
+           .append('\n');
+      }
+      stmt.close();
+      return sb.toString();
+   }//end reconcile
+
+   public void start() {
+      this.running = true;
+      this.thread = new Thread(this, "retail-hot-sku-flush");
+      this.thread.setDaemon(true);
+      this.thread.start();
+   }//end start
+
+   public void run() {
+      while (this.running) {
+         try {
+            Thread.sleep(this.flushMillis);
+            flush();
+         }catch (InterruptedException e) {
+            // stop() was called.
+         }catch (SQLException e) {
+            System.err.println("Hot SKU flush failed: " + e.getMessage());
+         }
+      }
+   }//end run
+
+   /**
+    * Stops the flush thread and writes the remaining deltas.
+    */
+   public void stop() {
+      this.running = false;
+      if (this.thread != null) {
+         this.thread.interrupt();
+         try {
+            this.thread.join(this.flushMillis * 2);
+         }catch (InterruptedException e) {
+            // ignored.
+         }
+      }
+      try {
+         flush();
+         if (this.conn != null)
+            this.conn.close();
+      }catch (SQLException e) {
+         System.err.println("Hot SKU flush failed: " + e.getMessage());
+      }
+   }//end stop
+
+}//end HotSkuCounters
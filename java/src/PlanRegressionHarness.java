@@ -0,0 +1,593 @@
+/*
+ * Query plan regression harness
+ * =============================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * Runs EXPLAIN (ANALYZE, BUFFERS) for every query shape the Retail menu
+ * issues and fails when a plan or its cost regresses.
+ *
+ * Each shape asserts plan properties: the tables it must not read with a
+ * sequential scan, how many Orders partitions it may touch, and how far the
+ * row estimates of its scan and join nodes may be off. Its execution time
+ * (median of RUNS), buffer count and plan signature (node types and
+ * relations, with partitions named after their parent) are compared with a
+ * baseline file; --record writes that file instead.
+ *
+ * usage:
+ *    PlanRegressionHarness <dbname> <port> <user> [--load SCALE] [--record] [--baseline FILE]
+ *
+ * --load adds a synthetic dataset of roughly SCALE x (10000 users, 100
+ * stores, 2000 products, 100000 orders, 10000 product updates) first.
+ * Write shapes run inside a transaction that is rolled back.
+ */
+public class PlanRegressionHarness {
+
+   private static final int RUNS = 5;
+   // a run regresses when it is slower than baseline * factor + slack
+   private static final double TIME_FACTOR = 2.0;
+   private static final double TIME_SLACK_MS = 1.0;
+   private static final double BUFFER_FACTOR = 2.0;
+   private static final long BUFFER_SLACK = 100;
+   // a sequential scan of a table this small (in pages) is never a violation
+   private static final int SMALL_TABLE_PAGES = 8;
+   // a three month window reads the last three months, the current one, the
+   // three created ahead by create_future_partitions and the default one
+   private static final int ORDERS_WINDOW_PARTITIONS = 8;
+   // the recent orders window is bounded on both sides: the previous and the
+   // current month
+   private static final int RECENT_WINDOW_PARTITIONS = 2;
+   // an estimate this close to the actual rows is never a violation
+   private static final long ROWS_SLACK = 100;
+
+   /**
+    * One query shape and the plan properties it must have.
+    */
+   static class Shape {
+      final String name;
+      final String sql;
+      String[] noSeqScan = new String[0];
+      int maxOrdersPartitions = Integer.MAX_VALUE;
+      // allowed ratio between a scan or join node's estimated and actual rows
+      double maxRowsError = 10.0;
+
+      Shape(String name, String sql) {
+         this.name = name;
+         this.sql = sql;
+      }
+
+      Shape noSeqScan(String... tables) {
+         this.noSeqScan = tables;
+         return this;
+      }
+
+      Shape maxOrdersPartitions(int n) {
+         this.maxOrdersPartitions = n;
+         return this;
+      }
+   }//end Shape
+
+   /**
+    * What one EXPLAIN (ANALYZE, BUFFERS) run measured.
+    */
+   static class Result {
+      double executionMs;
+      long buffers;
+      String signature;
+      List<String> violations = new ArrayList<String>();
+   }//end Result
+
+   /**
+    * The query shapes of Retail's menu methods, with sample parameters
+    * taken from the loaded data. Keep in step with the SQL in Retail.java.
+    *
+    * Not covered: the admin branch of updateProduct runs "SELECT * FROM
+    * USER" and "UPDATE User ...", which name the reserved word USER instead
+    * of Users and fail before planning; the background statements of
+    * HotSkuCounters and ChangeListener are not menu queries.
+    */
+   static List<Shape> shapes(Connection conn) throws SQLException {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery(
+         "SELECT U.userID, trim(U.name), trim(U.password) FROM Users U, Orders O "
+         + "WHERE U.userID = O.customerID AND U.type = 'customer' LIMIT 1");
+      rs.next();
+      String customerID = rs.getString(1), customer = rs.getString(2), password = rs.getString(3);
+      rs = stmt.executeQuery(
+         "SELECT S.managerID, S.storeID, trim(P.productName) FROM Store S, Product P "
+         + "WHERE P.storeID = S.storeID ORDER BY S.storeID LIMIT 1");
+      rs.next();
+      String managerID = rs.getString(1), storeID = rs.getString(2), productName = rs.getString(3);
+      rs = stmt.executeQuery("SELECT latitude, longitude FROM Store WHERE storeID = '" + storeID + "'");
+      rs.next();
+      String latitude = rs.getString(1), longitude = rs.getString(2);
+      stmt.close();
+      // a bulk update chunk: one product of the manager's store, one unknown
+      String values = "(" + storeID + ", '" + productName + "', 10, 3.0), (" + storeID + ", 'no such product', 1, 1.0)";
+      int manager = Integer.parseInt(managerID.trim());
+
+      List<Shape> shapes = new ArrayList<Shape>();
+      // LogIn
+      shapes.add(new Shape("login",
+         "SELECT * FROM USERS WHERE name = '" + customer + "' AND password = '" + password + "'")
+         .noSeqScan("users"));
+      // every menu method: the logged in user's id and location
+      shapes.add(new Shape("user_by_name",
+         "SELECT userID, type, latitude, longitude FROM Users WHERE name = '" + customer + "'")
+         .noSeqScan("users"));
+      // CreateUser
+      shapes.add(new Shape("user_insert",
+         "INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('plan check', 'xyz', 50, 50, 'Customer')"));
+      // CreateUser: every user name, a full scan by design
+      shapes.add(new Shape("user_names",
+         "SELECT name FROM USERS"));
+      // viewStores, placeOrder: every store's location, a full scan by design
+      shapes.add(new Shape("store_locations",
+         "SELECT latitude, longitude FROM Store"));
+      // viewStores, once per store within 30 miles
+      shapes.add(new Shape("store_at_location",
+         "SELECT name, latitude, longitude FROM Store WHERE latitude = '" + latitude + "' AND longitude = '"
+         + longitude + "'")
+         .noSeqScan("store"));
+      // placeOrder, once per store within 30 miles
+      shapes.add(new Shape("products_at_location",
+         "SELECT P.StoreID, P.productName, P.numberOfUnits, P.pricePerUnit FROM Product P, Store S WHERE P.storeID = S.storeID AND S.latitude = '"
+         + latitude + "' AND longitude = '" + longitude + "'")
+         .noSeqScan("store", "product"));
+      // updateProduct: the manager's store; the query joins Store to Users
+      // without a join condition, so it reads all of Store by design
+      shapes.add(new Shape("manager_store",
+         "SELECT storeID FROM Store S, Users U WHERE U.userID = '" + managerID + "'")
+         .noSeqScan("users"));
+      // viewProducts, updateProduct
+      shapes.add(new Shape("products_of_store",
+         "SELECT * FROM Product WHERE storeid = '" + storeID + "'")
+         .noSeqScan("product"));
+      // placeOrder: guarded stock update
+      shapes.add(new Shape("order_stock_update",
+         "UPDATE Product P SET numberOfUnits = P.numberOfUnits - 1 WHERE P.storeID = '" + storeID
+         + "' AND P.productName = '" + productName + "' AND P.numberOfUnits >= 1 AND "
+         + HotSkuCounters.notHotElsewhere("P"))
+         .noSeqScan("product"));
+      // placeOrder
+      shapes.add(new Shape("order_insert",
+         "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) VALUES ('"
+         + customerID + "', '" + storeID + "', '" + productName + "', 1, now())"));
+      // refreshProduct, ProductIndex.onChange
+      shapes.add(new Shape("product_by_key",
+         "SELECT numberOfUnits, pricePerUnit FROM Product WHERE storeID = '" + storeID
+         + "' AND productName = '" + productName + "'")
+         .noSeqScan("product"));
+      // viewRecentOrders, first over the last two months
+      shapes.add(new Shape("recent_orders_window",
+         "SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '"
+         + customerID + "'AND S.storeID = O.storeID" + Retail.recentWindow("O.orderTime")
+         + " ORDER BY O.orderTime DESC LIMIT 5")
+         .noSeqScan("orders").maxOrdersPartitions(RECENT_WINDOW_PARTITIONS));
+      // viewRecentOrders, falling back to all history
+      shapes.add(new Shape("recent_orders",
+         "SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '"
+         + customerID + "'AND S.storeID = O.storeID ORDER BY O.orderTime DESC LIMIT 5")
+         .noSeqScan("orders"));
+      // updateProduct
+      shapes.add(new Shape("product_update",
+         "UPDATE Product SET numberOfUnits = '10', pricePerUnit = '3' WHERE storeID = '" + storeID
+         + "' AND productName = '" + productName + "'")
+         .noSeqScan("product"));
+      // updateProduct
+      shapes.add(new Shape("product_update_insert",
+         "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES ('" + managerID
+         + "', '" + storeID + "', '" + productName + "', now())"));
+      // updateProduct: full table dumps after an update, full scans by design
+      shapes.add(new Shape("all_products",
+         "SELECT * FROM Product"));
+      shapes.add(new Shape("all_product_updates",
+         "SELECT * FROM ProductUpdates"));
+      // viewRecentUpdates, first over the last two months
+      shapes.add(new Shape("recent_updates_window",
+         "SELECT * FROM productUpdates AS PU, Store AS S WHERE S.storeID = PU.storeID AND PU.managerID = '"
+         + managerID + "'" + Retail.recentWindow("PU.updatedOn") + " ORDER BY PU.updatedOn DESC LIMIT 5")
+         .noSeqScan("productupdates"));
+      // viewRecentUpdates, falling back to all history
+      shapes.add(new Shape("recent_updates",
+         "SELECT * FROM productUpdates AS PU, Store AS S WHERE S.storeID = PU.storeID AND PU.managerID = '"
+         + managerID + "' ORDER BY PU.updatedOn DESC LIMIT 5")
+         .noSeqScan("productupdates"));
+      // viewPopularProducts
+      shapes.add(new Shape("popular_products",
+         "SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '"
+         + managerID + "' GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5")
+         .noSeqScan("orders"));
+      // viewPopularProducts with -Dretail.popularityMonths=3
+      shapes.add(new Shape("popular_products_3_months",
+         "SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '"
+         + managerID + "' AND O.orderTime >= date_trunc('month', now()) - interval '3 months' "
+         + "GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5")
+         .noSeqScan("orders").maxOrdersPartitions(ORDERS_WINDOW_PARTITIONS));
+      // viewPopularCustomers; without a window it aggregates all of Orders
+      // by design
+      shapes.add(new Shape("popular_customers",
+         "SELECT U.userID, U.name, U.password, U.latitude, U.longitude, U.type, COUNT(*) AS TOTAL_TIMES_ORDERED "
+         + "FROM Orders AS O, Users U WHERE U.userID = O.customerID "
+         + "GROUP BY U.userID ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5"));
+      // viewPopularCustomers with -Dretail.popularityMonths=3
+      shapes.add(new Shape("popular_customers_3_months",
+         "SELECT U.userID, U.name, U.password, U.latitude, U.longitude, U.type, COUNT(*) AS TOTAL_TIMES_ORDERED "
+         + "FROM Orders AS O, Users U WHERE U.userID = O.customerID "
+         + "AND O.orderTime >= date_trunc('month', now()) - interval '3 months' "
+         + "GROUP BY U.userID ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5")
+         .maxOrdersPartitions(ORDERS_WINDOW_PARTITIONS));
+      // bulkUpdateProducts, once per chunk
+      shapes.add(new Shape("bulk_not_owned",
+         BulkProductUpdate.notOwnedSql(values, manager))
+         .noSeqScan("store"));
+      shapes.add(new Shape("bulk_update",
+         BulkProductUpdate.updateSql(values, manager, false))
+         .noSeqScan("product"));
+      shapes.add(new Shape("bulk_audit",
+         BulkProductUpdate.auditSql(values, manager, false))
+         .noSeqScan("product"));
+      return shapes;
+   }//end shapes
+
+   // ---------------------------------------------------------------------
+
+   private static final Pattern NODE = Pattern.compile(
+      "^\\s*(?:->\\s*)?([A-Za-z][A-Za-z ]*?)(?: using \\S+)?(?: on (\\S+)(?: \\S+)?)?\\s+\\(cost=\\S+ rows=(\\d+) width=\\d+\\)"
+      + "(?: \\(actual time=\\S+ rows=(\\d+) loops=(\\d+)\\))?");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+   private static final Pattern EXECUTION = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+   private static final Pattern ORDERS_PARTITION = Pattern.compile("^orders_(p\\d{4}_\\d{2}|default)$");
+   // a monthly or default partition, or an index on one, named after the parent
+   private static final Pattern PARTITION = Pattern.compile("^(orders|productupdates)_(?:p\\d{4}_\\d{2}|default)(_\\w+)?$");
+
+   /**
+    * One plan node on the path from the top node to the current line.
+    */
+   private static class Frame {
+      final int indent;
+      // signatures of the child subtrees seen so far
+      final Set<String> children = new HashSet<String>();
+      // true if a Limit above may stop this node's children early
+      final boolean childrenCut;
+
+      Frame(int indent, boolean childrenCut) {
+         this.indent = indent;
+         this.childrenCut = childrenCut;
+      }
+   }//end Frame
+
+   /**
+    * Returns a relation with partition names replaced by the parent's, so
+    * the signature survives new months and archived ones.
+    */
+   static String normalize(String relation) {
+      Matcher m = PARTITION.matcher(relation);
+      return m.matches() ? m.group(1) + (m.group(2) == null ? "" : m.group(2)) : relation;
+   }
+
+   // nodes that read all their input before returning a row
+   private static boolean blocking(String node) {
+      return node.equals("Sort") || node.equals("Hash") || node.equals("Aggregate")
+         || node.equals("HashAggregate") || node.equals("Materialize");
+   }
+
+   /**
+    * Runs one EXPLAIN (ANALYZE, BUFFERS) and checks the shape's properties.
+    */
+   static Result explain(Connection conn, Shape shape) throws SQLException {
+      List<String> plan = new ArrayList<String>();
+      conn.setAutoCommit(false);
+      try {
+         Statement stmt = conn.createStatement();
+         ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + shape.sql);
+         while (rs.next())
+            plan.add(rs.getString(1));
+         stmt.close();
+      }finally {
+         // write shapes must not change the data
+         conn.rollback();
+         conn.setAutoCommit(true);
+      }
+      return analyze(conn, shape, plan);
+   }//end explain
+
+   /**
+    * Checks the lines of one EXPLAIN (ANALYZE, BUFFERS) output against the
+    * shape's properties and builds its signature.
+    */
+   static Result analyze(Connection conn, Shape shape, List<String> plan) throws SQLException {
+      Result r = new Result();
+      StringBuilder signature = new StringBuilder();
+      Set<String> ordersPartitions = new TreeSet<String>();
+      // path to the current node; a subtree repeating one of its siblings,
+      // e.g. the same scan on another partition, is left out of the signature
+      List<Frame> path = new ArrayList<Frame>();
+      Set<String> roots = new HashSet<String>();
+      int skipBelow = -1;
+      for (String line : plan) {
+         Matcher m = NODE.matcher(line);
+         if (m.find()) {
+            String node = m.group(1).trim();
+            String relation = m.group(2) == null ? null : m.group(2).toLowerCase();
+            int indent = line.length() - line.replaceFirst("^\\s*(->\\s*)?", "").length();
+            while (!path.isEmpty() && path.get(path.size() - 1).indent >= indent)
+               path.remove(path.size() - 1);
+            Frame parent = path.isEmpty() ? null : path.get(path.size() - 1);
+            boolean cut = parent != null && parent.childrenCut;
+            path.add(new Frame(indent, node.equals("Limit") || (cut && !blocking(node))));
+
+            String entry = relation == null ? node : node + " " + normalize(relation);
+            if (skipBelow >= 0 && indent > skipBelow) {
+               // inside a repeated subtree
+            }else if (!(parent == null ? roots : parent.children).add(entry)) {
+               skipBelow = indent;
+            }else {
+               skipBelow = -1;
+               signature.append(signature.length() == 0 ? "" : ";").append(entry);
+            }
+
+            if (relation != null && node.endsWith("Seq Scan")) {
+               for (String t : shape.noSeqScan) {
+                  if ((relation.equals(t) || relation.startsWith(t + "_"))
+                      && pages(conn, relation) > SMALL_TABLE_PAGES)
+                     r.violations.add("sequential scan on " + relation);
+               }
+            }
+            // partitions only; a Bitmap Index Scan names an index on one
+            if (relation != null && (relation.equals("orders") || ORDERS_PARTITION.matcher(relation).matches()))
+               ordersPartitions.add(relation);
+            // scan and join nodes, unless a Limit above may stop them early
+            boolean scanOrJoin = node.endsWith("Scan") || node.endsWith("Join") || node.equals("Nested Loop");
+            if (scanOrJoin && !cut && m.group(4) != null) {
+               double estimated = Math.max(1, Long.parseLong(m.group(3)));
+               double actual = Math.max(1, Long.parseLong(m.group(4)));
+               if (Math.max(estimated, actual) / Math.min(estimated, actual) > shape.maxRowsError
+                   && Math.abs(estimated - actual) > ROWS_SLACK)
+                  r.violations.add(String.format("%s row estimate %.0f vs actual %.0f", entry, estimated, actual));
+            }
+            continue;
+         }
+         m = BUFFERS.matcher(line);
+         if (m.find() && r.buffers == 0) {
+            // the first Buffers line belongs to the top node and covers the whole plan
+            r.buffers = (m.group(1) == null ? 0 : Long.parseLong(m.group(1)))
+                      + (m.group(2) == null ? 0 : Long.parseLong(m.group(2)));
+            continue;
+         }
+         m = EXECUTION.matcher(line);
+         if (m.find())
+            r.executionMs = Double.parseDouble(m.group(1));
+      }
+      if (ordersPartitions.size() > shape.maxOrdersPartitions)
+         r.violations.add(ordersPartitions.size() + " Orders partitions scanned, at most "
+                          + shape.maxOrdersPartitions + " expected");
+      r.signature = signature.toString();
+      return r;
+   }//end analyze
+
+   /**
+    * Returns the size of a table in pages as of its last ANALYZE.
+    */
+   static int pages(Connection conn, String relation) throws SQLException {
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT relpages FROM pg_class WHERE relname = '" + relation + "'");
+      int pages = rs.next() ? rs.getInt(1) : 0;
+      stmt.close();
+      return pages;
+   }//end pages
+
+   /**
+    * Runs a shape RUNS times and keeps the run with the median time.
+    */
+   static Result measure(Connection conn, Shape shape) throws SQLException {
+      List<Result> runs = new ArrayList<Result>();
+      for (int i = 0; i < RUNS; ++i)
+         runs.add(explain(conn, shape));
+      Collections.sort(runs, new Comparator<Result>() {
+         public int compare(Result a, Result b) {
+            return Double.compare(a.executionMs, b.executionMs);
+         }
+      });
+      return runs.get(RUNS / 2);
+   }//end measure
+
+   // ---------------------------------------------------------------------
+
+   /**
+    * Adds a synthetic dataset on top of whatever is loaded, then ANALYZEs,
+    * all in one transaction so a failed load leaves nothing behind.
+    */
+   static void load(Connection conn, int scale) throws SQLException {
+      conn.setAutoCommit(false);
+      try {
+         loadRows(conn, scale);
+         conn.commit();
+      }catch (SQLException e) {
+         conn.rollback();
+         throw e;
+      }finally {
+         conn.setAutoCommit(true);
+      }
+   }//end load
+
+   private static void loadRows(Connection conn, int scale) throws SQLException {
+      Statement stmt = conn.createStatement();
+      long start = System.currentTimeMillis();
+      // keys below these belong to earlier loads
+      ResultSet rs = stmt.executeQuery(
+         "SELECT (SELECT COALESCE(MAX(userID), 0) FROM Users), (SELECT COALESCE(MAX(storeID), 0) FROM Store)");
+      rs.next();
+      int maxUserID = rs.getInt(1);
+      int maxStoreID = rs.getInt(2);
+      rs.close();
+      stmt.executeUpdate(
+         "INSERT INTO Users (name, password, latitude, longitude, type) "
+         + "SELECT 'customer' || g, 'xyz', random() * 100, random() * 100, 'customer' "
+         + "FROM generate_series(1, " + 10000 * scale + ") g");
+      stmt.executeUpdate(
+         "INSERT INTO Users (name, password, latitude, longitude, type) "
+         + "SELECT 'manager' || g, 'xyz', random() * 100, random() * 100, 'manager' "
+         + "FROM generate_series(1, " + 100 * scale + ") g");
+      stmt.executeUpdate(
+         "INSERT INTO Store (storeID, name, latitude, longitude, managerID, dateEstablished) "
+         + "SELECT " + maxStoreID + " + g, 'store' || (" + maxStoreID + " + g), random() * 100, random() * 100, "
+         + "(SELECT MIN(userID) FROM Users WHERE type = 'manager' AND userID > " + maxUserID + ") + g - 1, current_date "
+         + "FROM generate_series(1, " + 100 * scale + ") g");
+      stmt.executeUpdate(
+         "INSERT INTO Product (storeID, productName, numberOfUnits, pricePerUnit) "
+         + "SELECT S.storeID, 'product' || g, 1000000, 1 + g % 10 "
+         + "FROM Store S, generate_series(1, 20) g WHERE S.storeID > " + maxStoreID);
+      // give every generated month its own partition on the partitioned schema
+      stmt.execute(
+         "DO $$ BEGIN "
+         + "IF to_regproc('create_monthly_partition') IS NOT NULL THEN "
+         + "PERFORM create_monthly_partition('orders', m::date), create_monthly_partition('productupdates', m::date) "
+         + "FROM generate_series(now() - interval '2 years', now(), interval '1 month') m; "
+         + "END IF; END $$");
+      String products =
+         "WITH p AS (SELECT array_agg(storeID) AS stores, array_agg(productName) AS names, count(*) AS n FROM Product), "
+         + "u AS (SELECT array_agg(userID) AS ids, count(*) AS n FROM Users WHERE type = 'customer') ";
+      stmt.executeUpdate(products
+         + "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) "
+         + "SELECT u.ids[1 + (random() * (u.n - 1))::int], p.stores[k], p.names[k], 1 + g % 10, "
+         + "now() - random() * interval '2 years' "
+         + "FROM p, u, generate_series(1, " + 100000 * scale + ") g, "
+         + "LATERAL (SELECT 1 + (random() * (p.n - 1) + g * 0)::int AS k) r");
+      stmt.executeUpdate(
+         "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) "
+         + "SELECT S.managerID, P.storeID, P.productName, now() - random() * interval '2 years' "
+         + "FROM Product P, Store S, generate_series(1, 5) g WHERE P.storeID = S.storeID "
+         + "ORDER BY random() LIMIT " + 10000 * scale);
+      stmt.execute("ANALYZE");
+      stmt.close();
+      System.out.println("Loaded scale " + scale + " in " + (System.currentTimeMillis() - start) + " ms");
+   }//end loadRows
+
+   // ---------------------------------------------------------------------
+
+   /**
+    * Baseline line format: name, execution ms, buffers, plan signature,
+    * separated by tabs.
+    */
+   static Map<String, String[]> readBaseline(File f) throws IOException {
+      Map<String, String[]> baseline = new LinkedHashMap<String, String[]>();
+      if (!f.exists())
+         return baseline;
+      BufferedReader reader = new BufferedReader(new FileReader(f));
+      String line;
+      while ((line = reader.readLine()) != null) {
+         if (line.startsWith("#") || line.trim().length() == 0)
+            continue;
+         String[] fields = line.split("\t");
+         baseline.put(fields[0], fields);
+      }
+      reader.close();
+      return baseline;
+   }//end readBaseline
+
+   static void writeBaseline(File f, Map<String, Result> results) throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(f));
+      out.println("# name\texecution ms\tbuffers\tplan signature");
+      out.println("# written by PlanRegressionHarness --record");
+      for (Map.Entry<String, Result> e : results.entrySet()) {
+         Result r = e.getValue();
+         out.println(e.getKey() + "\t" + String.format("%.3f", r.executionMs) + "\t" + r.buffers + "\t" + r.signature);
+      }
+      out.close();
+   }//end writeBaseline
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PlanRegressionHarness.class.getName() +
+            " <dbname> <port> <user> [--load SCALE] [--record] [--baseline FILE]");
+         System.exit(2);
+      }
+      int scale = 0;
+      boolean record = false;
+      File baselineFile = new File("plan_baseline.tsv");
+      for (int i = 3; i < args.length; ++i) {
+         if (args[i].equals("--load"))
+            scale = Integer.parseInt(args[++i]);
+         else if (args[i].equals("--record"))
+            record = true;
+         else if (args[i].equals("--baseline"))
+            baselineFile = new File(args[++i]);
+      }
+
+      Class.forName("org.postgresql.Driver").newInstance();
+      String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+      Connection conn = DriverManager.getConnection(url, args[2], "");
+      boolean failed = false;
+      try {
+         if (scale > 0)
+            load(conn, scale);
+         Map<String, String[]> baseline = readBaseline(baselineFile);
+         Map<String, Result> results = new LinkedHashMap<String, Result>();
+         System.out.println(String.format("%-28s %10s %10s %10s %10s  %s",
+            "shape", "ms", "base ms", "buffers", "base buf", "status"));
+         for (Shape shape : shapes(conn)) {
+            Result r = measure(conn, shape);
+            results.put(shape.name, r);
+            List<String> problems = new ArrayList<String>(r.violations);
+            String[] base = baseline.get(shape.name);
+            if (base != null && !record) {
+               double baseMs = Double.parseDouble(base[1]);
+               long baseBuffers = Long.parseLong(base[2]);
+               if (r.executionMs > baseMs * TIME_FACTOR + TIME_SLACK_MS)
+                  problems.add(String.format("%.3f ms, baseline %.3f ms", r.executionMs, baseMs));
+               if (r.buffers > baseBuffers * BUFFER_FACTOR + BUFFER_SLACK)
+                  problems.add(r.buffers + " buffers, baseline " + baseBuffers);
+               if (!r.signature.equals(base[3]))
+                  problems.add("plan changed from [" + base[3] + "] to [" + r.signature + "]");
+            }
+            failed |= !problems.isEmpty();
+            System.out.println(String.format("%-28s %10.3f %10s %10d %10s  %s",
+               shape.name, r.executionMs, base == null ? "-" : base[1], r.buffers,
+               base == null ? "-" : base[2], problems.isEmpty() ? "ok" : "FAIL"));
+            for (String p : problems)
+               System.out.println("      " + p);
+         }
+         if (record) {
+            writeBaseline(baselineFile, results);
+            System.out.println("Baseline written to " + baselineFile);
+         }
+      }finally {
+         conn.close();
+      }
+      if (failed)
+         System.exit(1);
+   }//end main
+
+}//end PlanRegressionHarness
@@ -0,0 +1,253 @@
+/*
+ * Product availability index for the Retail user interface
+ * ========================================================
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+
+/**
+ * In-memory inverted index from product name to the stores that carry it.
+ *
+ * The postings of each product are bucketed into a square grid over store
+ * coordinates, so "the k nearest stores with at least N units of X" only
+ * visits the rings of cells around the user instead of every Product row.
+ * The index is loaded once from Product and Store and then patched row by
+ * row whenever an order or product update changes a stock level, either in
+ * this instance or, through ChangeListener, in another one.
+ */
+public class ProductIndex implements ChangeListener.Cache {
+
+   // side of a grid cell, in the same units as calculateDistance.
+   private static final double CELL_SIZE = 10.0;
+
+   /**
+    * One store carrying one product.
+    */
+   public static class Posting {
+      public final int storeID;
+      public final String storeName;
+      public final double latitude;
+      public final double longitude;
+      public int units;
+      public double price;
+      public double distance;
+
+      Posting(int storeID, String storeName, double latitude, double longitude, int units, double price) {
+         this.storeID = storeID;
+         this.storeName = storeName;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.units = units;
+         this.price = price;
+      }
+   }//end Posting
+
+   /**
+    * Postings of a single product, by grid cell and by store.
+    */
+   private static class Postings {
+      final Map<Long, List<Posting>> cells = new HashMap<Long, List<Posting>>();
+      final Map<Integer, Posting> byStore = new HashMap<Integer, Posting>();
+   }//end Postings
+
+   private final Map<String, Postings> index = new HashMap<String, Postings>();
+   // name and coordinates of every store, needed when a store gains a product.
+   private final Map<Integer, Posting> stores = new HashMap<Integer, Posting>();
+   private boolean loaded = false;
+
+   public synchronized boolean isLoaded() {
+      return this.loaded;
+   }
+
+   /**
+    * Drops the index; the next lookup reloads it.
+    */
+   public synchronized void invalidate() {
+      this.index.clear();
+      this.stores.clear();
+      this.loaded = false;
+   }
+
+   /**
+    * (Re)builds the whole index from the database.
+    *
+    * @param conn the connection to read Product and Store from
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public synchronized void load(Connection conn) throws SQLException {
+      this.index.clear();
+      this.stores.clear();
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT storeID, name, latitude, longitude FROM Store");
+      while (rs.next()) {
+         this.stores.put(rs.getInt(1),
+            new Posting(rs.getInt(1), rs.getString(2).trim(), rs.getDouble(3), rs.getDouble(4), 0, 0.0));
+      }
+      rs = stmt.executeQuery("SELECT storeID, productName, numberOfUnits, pricePerUnit FROM Product");
+      while (rs.next())
+         put(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getDouble(4));
+      stmt.close();
+      this.loaded = true;
+   }//end load
+
+   /**
+    * Inserts or updates the stock of one product in one store.
+    */
+   public synchronized void put(int storeID, String productName, int units, double price) {
+      Posting store = this.stores.get(storeID);
+      if (store == null)
+         return;
+      String key = productName.trim();
+      Postings postings = this.index.get(key);
+      if (postings == null) {
+         postings = new Postings();
+         this.index.put(key, postings);
+      }
+      Posting p = postings.byStore.get(storeID);
+      if (p == null) {
+         p = new Posting(storeID, store.storeName, store.latitude, store.longitude, units, price);
+         postings.byStore.put(storeID, p);
+         Long cell = cellOf(p.latitude, p.longitude);
+         List<Posting> list = postings.cells.get(cell);
+         if (list == null) {
+            list = new ArrayList<Posting>();
+            postings.cells.put(cell, list);
+         }
+         list.add(p);
+      }
+      p.units = units;
+      p.price = price;
+   }//end put
+
+   /**
+    * Removes one product from one store.
+    */
+   public synchronized void remove(int storeID, String productName) {
+      Postings postings = this.index.get(productName.trim());
+      if (postings == null)
+         return;
+      Posting p = postings.byStore.remove(storeID);
+      if (p != null)
+         postings.cells.get(cellOf(p.latitude, p.longitude)).remove(p);
+   }//end remove
+
+   /**
+    * Patches the index after another instance changed a Product or Store
+    * row. Product keys are storeID:productName; a store change reloads the
+    * whole index since it may move every posting of that store.
+    */
+   public synchronized void onChange(Connection conn, String table, String key) throws SQLException {
+      if (!this.loaded)
+         return;
+      if (table.equals("store")) {
+         load(conn);
+         return;
+      }
+      if (!table.equals("product"))
+         return;
+      int sep = key.indexOf(':');
+      int storeID = Integer.parseInt(key.substring(0, sep));
+      String productName = key.substring(sep + 1);
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery(
+         "SELECT numberOfUnits, pricePerUnit FROM Product WHERE storeID = '" + storeID
+         + "' AND productName = '" + productName.replace("'", "''") + "'");
+      if (rs.next())
+         put(storeID, productName, rs.getInt(1), rs.getDouble(2));
+      else
+         remove(storeID, productName);
+      stmt.close();
+   }//end onChange
+
+   public synchronized void resync(Connection conn) throws SQLException {
+      if (this.loaded)
+         load(conn);
+   }
+
+   /**
+    * Finds the k stores nearest to a location that have at least minUnits
+    * units of a product. Grid rings are visited outward from the user's cell;
+    * the search stops once the k-th best distance is closer than anything an
+    * unvisited ring could hold.
+    *
+    * @return copies of the matching postings, nearest first
+    */
+   public synchronized List<Posting> nearest(String productName, int minUnits, int k,
+                                             double latitude, double longitude) {
+      List<Posting> result = new ArrayList<Posting>();
+      Postings postings = this.index.get(productName.trim());
+      if (postings == null || k <= 0)
+         return result;
+
+      // max-heap on distance holding the best k so far; k comes from the
+      // user, so the heap is never sized beyond the stores that exist
+      int capacity = Math.max(1, Math.min(k, postings.byStore.size()));
+      PriorityQueue<Posting> best = new PriorityQueue<Posting>(capacity, new Comparator<Posting>() {
+         public int compare(Posting a, Posting b) {
+            return Double.compare(b.distance, a.distance);
+         }
+      });
+      int cx = (int) Math.floor(latitude / CELL_SIZE);
+      int cy = (int) Math.floor(longitude / CELL_SIZE);
+      int seen = 0;
+      int total = postings.byStore.size();
+      for (int r = 0; seen < total; ++r) {
+         for (int dx = -r; dx <= r; ++dx) {
+            for (int dy = -r; dy <= r; ++dy) {
+               if (Math.max(Math.abs(dx), Math.abs(dy)) != r)
+                  continue;
+               List<Posting> cell = postings.cells.get(cellKey(cx + dx, cy + dy));
+               if (cell == null)
+                  continue;
+               for (Posting p : cell) {
+                  ++seen;
+                  if (p.units < minUnits)
+                     continue;
+                  double d = Retail.calculateDistance(latitude, longitude, p.latitude, p.longitude);
+                  if (best.size() < k || d < best.peek().distance) {
+                     Posting copy = new Posting(p.storeID, p.storeName, p.latitude, p.longitude, p.units, p.price);
+                     copy.distance = d;
+                     best.add(copy);
+                     if (best.size() > k)
+                        best.poll();
+                  }
+               }
+            }
+         }
+         // every posting outside rings 0..r is at least r cells away
+         if (best.size() == k && best.peek().distance <= r * CELL_SIZE)
+            break;
+      }
+      result.addAll(best);
+      Collections.sort(result, new Comparator<Posting>() {
+         public int compare(Posting a, Posting b) {
+            return Double.compare(a.distance, b.distance);
+         }
+      });
+      return result;
+   }//end nearest
+
+   private static Long cellOf(double latitude, double longitude) {
+      return cellKey((int) Math.floor(latitude / CELL_SIZE), (int) Math.floor(longitude / CELL_SIZE));
+   }
+
+   private static Long cellKey(int x, int y) {
+      return ((long) x << 32) | (y & 0xffffffffL);
+   }
+
+}//end ProductIndex
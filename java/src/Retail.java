@@ -39,6 +39,21 @@ public class Retail {
    // reference to physical database connection.
    private Connection _connection = null;
 
+   // picks the primary or a replica connection for each menu operation.
+   private ConnectionRouter _router = null;
+
+   // the connection of the current menu operation, null for the primary.
+   private Connection _current = null;
+
+   // product name to stores index, loaded on first use.
+   private final ProductIndex _productIndex = new ProductIndex();
+
+   // keeps the local caches coherent with other instances, null if disabled.
+   private ChangeListener _listener = null;
+
+   // in-memory stock of flash-sale products, null if none are configured.
+   private HotSkuCounters _hotSkus = null;
+
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
    static BufferedReader in = new BufferedReader(
@@ -72,6 +87,15 @@ public class Retail {
 
          // obtain a physical connection
          this._connection = DriverManager.getConnection(url, user, passwd);
+         this._router = ConnectionRouter.fromSystemProperties(this._connection, dbname, user, passwd);
+         if (Boolean.getBoolean("retail.listen")) {
+            this._listener = new ChangeListener(url, user, passwd);
+            this._listener.register(this._productIndex);
+            this._listener.start();
+         }
+         this._hotSkus = HotSkuCounters.fromSystemProperties(url, user, passwd);
+         if (this._hotSkus != null)
+            this._hotSkus.register(this._productIndex);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -80,6 +104,142 @@ public class Retail {
       }//end catch
    }//end Retail
 
+   /**
+    * Starts a menu operation. The connection of a read-only operation is
+    * chosen here, once, so all of its reads see the same replica.
+    */
+   public void setReadOnly(boolean readOnly) {
+      this._current = this._router.route(readOnly);
+   }
+
+   /**
+    * Returns the connection the current operation's statements run on.
+    */
+   public Connection connection() {
+      return this._current == null ? this._connection : this._current;
+   }
+
+   /**
+    * Returns the primary connection for statements that write, e.g. a
+    * multi-statement transaction, and starts the read-your-writes window.
+    */
+   public Connection connectionForWrite() {
+      this._router.markWrite();
+      return this._connection;
+   }
+
+   /**
+    * Ends the read-your-writes window of the logged in user.
+    */
+   public void endSession() {
+      this._router.endSession();
+   }
+
+   /**
+    * Returns the product availability index, loading it if needed.
+    */
+   public ProductIndex productIndex() throws SQLException {
+      if (!this._productIndex.isLoaded())
+         this._productIndex.load(this.connection());
+      return this._productIndex;
+   }
+
+   /**
+    * Returns the hot SKU counters, or null if no product is in hot SKU mode.
+    */
+   public HotSkuCounters hotSkus() {
+      return this._hotSkus;
+   }
+
+   /**
+    * Prints the replica and cache coherence status of this instance.
+    */
+   public void printSyncStatus() {
+      System.out.print(this._router.status());
+      if (this._listener == null)
+         System.out.println("change listener disabled (-Dretail.listen=true)");
+      else
+         System.out.print(this._listener.metrics());
+      if (this._hotSkus != null) {
+         try {
+            this._hotSkus.flush();
+            System.out.print(this._hotSkus.reconcile());
+         }catch (SQLException e) {
+            System.err.println(e.getMessage());
+         }
+      }
+   }//end printSyncStatus
+
+   /**
+    * Writes a hot product's pending deltas before its units are overwritten.
+    */
+   public void flushHotSku(String storeID, String productName) throws SQLException {
+      if (this._hotSkus != null && this._hotSkus.isHot(Integer.parseInt(storeID.trim()), productName))
+         this._hotSkus.flush();
+   }
+
+   /**
+    * Reloads a hot product's counters after its units were overwritten.
+    */
+   public void resyncHotSku(String storeID, String productName) throws SQLException {
+      if (this._hotSkus != null)
+         this._hotSkus.resync(Integer.parseInt(storeID.trim()), productName);
+   }
+
+   /**
+    * Drops the product index after many products changed at once.
+    */
+   public void invalidateProductIndex() {
+      this._productIndex.invalidate();
+   }
+
+   /**
+    * Re-reads one Product row after a write and patches the product index.
+    *
+    * @param storeID the store of the changed product
+    * @param productName the name of the changed product
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void refreshProduct(String storeID, String productName) throws SQLException {
+      if (!this._productIndex.isLoaded())
+         return;
+      List<List<String>> rows = executeQueryAndReturnResult(
+         "SELECT numberOfUnits, pricePerUnit FROM Product WHERE storeID = '" + storeID + "' AND productName = '" + productName + "'");
+      if (rows.isEmpty())
+         this._productIndex.remove(Integer.parseInt(storeID.trim()), productName);
+      else
+         this._productIndex.put(Integer.parseInt(storeID.trim()), productName,
+                                Integer.parseInt(rows.get(0).get(0)), Double.parseDouble(rows.get(0).get(1)));
+   }//end refreshProduct
+
+   /**
+    * Limits the popularity reports to the last -Dretail.popularityMonths
+    * months so Postgres only scans those Orders partitions. Without the
+    * property the reports cover the whole order history.
+    *
+    * @param column the timestamp column to filter on
+    * @return an AND clause, or an empty string
+    */
+   public static String popularityWindow(String column) {
+      String months = System.getProperty("retail.popularityMonths");
+      if (months == null)
+         return "";
+      return " AND " + column + " >= date_trunc('month', now()) - interval '" + Integer.parseInt(months.trim()) + " months'";
+   }//end popularityWindow
+
+   /**
+    * Limits a recent orders or updates query to the previous and the current
+    * month. Both bounds fall on partition bounds, so Postgres reads just
+    * those two partitions and not the default one.
+    *
+    * @param column the timestamp column to filter on
+    * @return an AND clause
+    */
+   public static String recentWindow(String column) {
+      return " AND " + column + " >= date_trunc('month', now()) - interval '1 month'"
+         + " AND " + column + " < date_trunc('month', now()) + interval '1 month'";
+   }//end recentWindow
+
    // Method to calculate euclidean distance between two latitude, longitude pairs. 
    public static double calculateDistance (double lat1, double long1, double lat2, double long2){
       double t1 = (lat1 - lat2) * (lat1 - lat2);
@@ -91,17 +251,20 @@ public class Retail {
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
     * @param sql the input SQL string
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
+   public int executeUpdate (String sql) throws SQLException {
+      // creates a statement object, writes always go to the primary
       Statement stmt = this._connection.createStatement ();
+      this._router.markWrite();
 
       // issues the update instruction
-      stmt.executeUpdate (sql);
+      int rowCount = stmt.executeUpdate (sql);
 
       // close the instruction
       stmt.close ();
+      return rowCount;
    }//end executeUpdate
 
 
@@ -116,7 +279,7 @@ public class Retail {
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = this.connection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -161,7 +324,7 @@ public class Retail {
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = this.connection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -191,7 +354,7 @@ public class Retail {
    public String executeQueryAndReturnResultFirstRow(String query) throws SQLException {
       String str = "0";
       // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Statement stmt = this.connection().createStatement ();
 
       // issues the query instruction
       ResultSet rs = stmt.executeQuery (query);
@@ -226,7 +389,7 @@ public class Retail {
     */
    public int executeQuery (String query) throws SQLException {
        // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       Statement stmt = this.connection().createStatement ();
 
        // issues the query instruction
        ResultSet rs = stmt.executeQuery (query);
@@ -264,6 +427,15 @@ public class Retail {
     */
    public void cleanup(){
       try{
+         if (this._listener != null){
+            this._listener.stop ();
+         }//end if
+         if (this._hotSkus != null){
+            this._hotSkus.stop ();
+         }//end if
+         if (this._router != null){
+            this._router.close ();
+         }//end if
          if (this._connection != null){
             this._connection.close ();
          }//end if
@@ -330,10 +502,17 @@ public class Retail {
                 System.out.println("7. View 5 Popular Items");
                 System.out.println("8. View 5 Popular Customers");
                 System.out.println("9. Place Product Supply Request to Warehouse");
+                System.out.println("10. Find nearest stores with a product in stock");
+                System.out.println("11. View replica and cache sync status");
+                System.out.println("12. Bulk update products from a file");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
+                int choice = readChoice();
+                // browsing choices never write and may be served by a replica
+                esql.setReadOnly(choice == 1 || choice == 2 || choice == 4
+                                 || choice == 6 || choice == 7 || choice == 8 || choice == 10);
+                switch (choice){
                    case 1: viewStores(esql, authorisedUser); break;
                    case 2: viewProducts(esql); break;
                    case 3: placeOrder(esql, authorisedUser); break;
@@ -343,8 +522,11 @@ public class Retail {
                    case 7: viewPopularProducts(esql, authorisedUser); break;
                    case 8: viewPopularCustomers(esql, authorisedUser); break;
                    case 9: placeProductSupplyRequests(esql); break;
+                   case 10: findNearestStock(esql, authorisedUser); break;
+                   case 11: esql.printSyncStatus(); break;
+                   case 12: bulkUpdateProducts(esql, authorisedUser); break;
 
-                   case 20: usermenu = false; break;
+                   case 20: usermenu = false; esql.endSession(); break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
               }
@@ -447,7 +629,7 @@ public class Retail {
 // Rest of the functions definition go in here
    public static void printColumnNames(Retail esql, String queryStatement) {
       try {
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
          ResultSet rs = stmt.executeQuery(queryStatement);
          ResultSetMetaData rsmd = rs.getMetaData();
          int numCol = rsmd.getColumnCount();
@@ -487,7 +669,7 @@ public class Retail {
 	try {
 		double lat = 0.0;
 		double longi = 0.0;
-		Statement stmt = esql._connection.createStatement();
+		Statement stmt = esql.connection().createStatement();
 		//get lat/long for user and lat/long for store
 		String honse = "SELECT latitude, longitude FROM Users WHERE name = '"+ authorizedUser+ "'";
 		String lat_long_user_query = (honse);
@@ -514,7 +696,7 @@ public class Retail {
 		}
 		stmt.close();
 
-		stmt = esql._connection.createStatement();
+		stmt = esql.connection().createStatement();
 		String lat_long_store_query = ("SELECT latitude, longitude FROM Store");
 		rs = stmt.executeQuery(lat_long_store_query);
 		rsmd = rs.getMetaData();
@@ -552,7 +734,7 @@ public class Retail {
          //Query 1 to retrieve the users latitude and longitude
 		   double lat = 0.0;
 		   double longi = 0.0;
-		   Statement stmt = esql._connection.createStatement();
+		   Statement stmt = esql.connection().createStatement();
 		   String honse = "SELECT latitude, longitude FROM Users WHERE name = '"+ authorizedUser+ "'";
 		   String lat_long_user_query = (honse);
 		   ResultSet rs = stmt.executeQuery(lat_long_user_query);
@@ -562,7 +744,7 @@ public class Retail {
 		   stmt.close();
 
          //Query 2 to retrieve the stores that the user can order from
-         stmt = esql._connection.createStatement();
+         stmt = esql.connection().createStatement();
 		   String lat_long_store_query = ("SELECT latitude, longitude FROM Store");
 		   rs = stmt.executeQuery(lat_long_store_query);
 		   rsmd = rs.getMetaData();
@@ -591,30 +773,69 @@ public class Retail {
          String cust = "SELECT userID FROM Users WHERE name = '" + authorizedUser + "'";
          String customerID = esql.executeQueryAndReturnResultFirstRow(cust);
          java.util.Date date = new java.util.Date();
+         int units = Integer.parseInt(numberOfUnits);
+         int store = Integer.parseInt(storeid.trim());
+         if (units <= 0) {
+            System.out.println("Number of units must be positive");
+            stmt.close();
+            return;
+         }
+
+         //reserve the units: hot products from the in-memory counters, the
+         //rest with a guarded update so stock can never go below zero; the
+         //guard also refuses a product another instance holds as hot
+         boolean hot = esql.hotSkus() != null && esql.hotSkus().isHot(store, productName);
+         String restore_units = null;
+         if (hot) {
+            if (!esql.hotSkus().reserve(store, productName, units)) {
+               if (esql.hotSkus().isLost(store, productName))
+                  System.out.println("This product is on sale through another Retail instance and cannot be ordered here");
+               else
+                  System.out.println("Not enough units in stock");
+               stmt.close();
+               return;
+            }
+         }
+         else {
+            String query6 = String.format(
+                "UPDATE Product P "
+                + "SET numberOfUnits = P.numberOfUnits - " + units + " "
+                + "WHERE P.storeID = '" + storeid + "' "
+                + "AND P.productName = '" + productName + "' "
+                + "AND P.numberOfUnits >= " + units + " "
+                + "AND " + HotSkuCounters.notHotElsewhere("P"));
+            if (esql.executeUpdate(query6) == 0) {
+               if (HotSkuCounters.isHotElsewhere(esql.connection(), store, productName))
+                  System.out.println("This product is on sale through another Retail instance and cannot be ordered here");
+               else
+                  System.out.println("Not enough units in stock");
+               stmt.close();
+               return;
+            }
+            restore_units = "UPDATE Product SET numberOfUnits = numberOfUnits + " + units
+                + " WHERE storeID = '" + storeid + "' AND productName = '" + productName + "'";
+         }
 
          //insert into orders table
          String query5 = String.format(
             "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) VALUES('%s','%s', '%s', '%s','%s')", customerID, storeid, productName, numberOfUnits, date);
-         esql.executeUpdate(query5);
+         try {
+            esql.executeUpdate(query5);
+         }
+         catch(SQLException e) {
+            //the order was not placed, give the units back
+            if (hot)
+               esql.hotSkus().release(store, productName, units);
+            else
+               esql.executeUpdate(restore_units);
+            throw e;
+         }
 
          // String query8 = String.format("SELECT * FROM ORDERS");
          // esql.executeQueryAndPrintResult(query8);
-         
-
-         //update products table
-         String get_prev_units = "SELECT P.numberOfUnits FROM Product P WHERE P.storeID = '" + storeid + "'";
-         get_prev_units = esql.executeQueryAndReturnResultFirstRow(get_prev_units);
-         System.out.println(get_prev_units);
-         int prev_units = Integer.parseInt(get_prev_units);
-         int new_units = Integer.parseInt(numberOfUnits);
-         new_units = prev_units - new_units;
-         System.out.println(new_units);
-         String query6 = String.format(
-             "UPDATE Product P "
-             + "SET numberOfUnits = '" + new_units + "'" 
-             + "WHERE P.storeID = '" + storeid + "'"
-             + "AND P.productName = '" + productName + "'");
-         esql.executeUpdate(query6);
+
+         if (!hot)
+            esql.refreshProduct(storeid, productName);
 
 
          // String query7 = String.format("SELECT * FROM Product P, Store S WHERE P.storeID = '" + storeid + "'");
@@ -634,7 +855,7 @@ public class Retail {
 //of other customers.
    public static void viewRecentOrders(Retail esql, String authorizedUser) {
       try {
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
 		   String check_user = ("SELECT userID FROM Users WHERE name = '" + authorizedUser + "'");
          ResultSet rs = stmt.executeQuery(check_user);
          ResultSetMetaData rsmd = rs.getMetaData();
@@ -643,8 +864,13 @@ public class Retail {
          while(rs.next()) {
             String userID = rs.getString(1);
             //query to match the userID to the order table
-            String match_user_to_order_table = ("SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '" + userID + "'AND S.storeID = O.storeID ORDER BY customerID DESC LIMIT 5");
-            esql.executeQueryAndPrintResult(match_user_to_order_table);
+            String match_user_to_order_table = ("SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '" + userID + "'AND S.storeID = O.storeID");
+            String newest_first = " ORDER BY O.orderTime DESC LIMIT 5";
+            //the last two months' partitions usually hold all 5, otherwise read all history
+            String recent_orders = match_user_to_order_table + recentWindow("O.orderTime") + newest_first;
+            if (esql.executeQuery(recent_orders) < 5)
+               recent_orders = match_user_to_order_table + newest_first;
+            esql.executeQueryAndPrintResult(recent_orders);
          }
       }
       catch(Exception e) {
@@ -657,7 +883,7 @@ public class Retail {
    public static void updateProduct(Retail esql, String authorizedUser) {
       try {
          //grab the manager ID after they login
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
 		   String check_user = ("SELECT userID, type FROM Users WHERE name = '" + authorizedUser + "'");
 		   ResultSet rs = stmt.executeQuery(check_user);
 		   ResultSetMetaData rsmd = rs.getMetaData();
@@ -687,7 +913,10 @@ public class Retail {
                //now we update the table product & productupdates
                String update_product_table = String.format(
                                                             "UPDATE Product SET numberOfUnits = '" + num_units_ + "', pricePerUnit = '" + price_per_unit_ + "' WHERE storeID = '" + storeID + "' AND productName = '" + productName + "'");
+               esql.flushHotSku(storeID, productName);
                esql.executeUpdate(update_product_table);
+               esql.resyncHotSku(storeID, productName);
+               esql.refreshProduct(storeID, productName);
                java.util.Date date = new java.util.Date();
                String insert_productUpdates_tables = String.format(
                      "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES('%s','%s', '%s', '%s')", userID, storeID, productName, date);
@@ -716,7 +945,10 @@ public class Retail {
                //update the product
                String update_product_table = String.format(
                      "UPDATE Product SET numberOfUnits = '" + num_units_ + "', pricePerUnit = '" + price_per_unit_ + "' WHERE storeID = '" + storeID + "' AND productName = '" + productName + "'");
+               esql.flushHotSku(storeID, productName);
                esql.executeUpdate(update_product_table);
+               esql.resyncHotSku(storeID, productName);
+               esql.refreshProduct(storeID, productName);
                //update user
                //retrieve all users
                String retrieve_all_users = "SELECT * FROM USER";
@@ -754,7 +986,7 @@ public class Retail {
    //his/her store(s).
    public static void viewRecentUpdates(Retail esql, String authorizedUser) {
       try {
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
 		   String check_user = ("SELECT userID, type FROM Users WHERE name = '" + authorizedUser + "'");
          ResultSet rs = stmt.executeQuery(check_user);
          ResultSetMetaData rsmd = rs.getMetaData();
@@ -765,8 +997,13 @@ public class Retail {
 			   String type = rs.getString(2);
             type = type.trim();
             if(type.equals("manager")) {
-               String get_recent_updates = "SELECT * FROM productUpdates AS PU, Store AS S WHERE S.storeID = PU.storeID AND PU.managerID = '" + userID + "' ORDER BY PU.updateNumber DESC LIMIT 5";
-               esql.executeQueryAndPrintResult(get_recent_updates);  
+               String get_recent_updates = "SELECT * FROM productUpdates AS PU, Store AS S WHERE S.storeID = PU.storeID AND PU.managerID = '" + userID + "'";
+               String newest_first = " ORDER BY PU.updatedOn DESC LIMIT 5";
+               //the last two months' partitions usually hold all 5, otherwise read all history
+               String recent_updates = get_recent_updates + recentWindow("PU.updatedOn") + newest_first;
+               if (esql.executeQuery(recent_updates) < 5)
+                  recent_updates = get_recent_updates + newest_first;
+               esql.executeQueryAndPrintResult(recent_updates);  
             }
          }
       }
@@ -780,7 +1017,7 @@ public class Retail {
    //on the order count of Product)
    public static void viewPopularProducts(Retail esql, String authorizedUser) {
       try {
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
 		   String check_user = ("SELECT userID, type FROM Users WHERE name = '" + authorizedUser + "'");
          ResultSet rs = stmt.executeQuery(check_user);
          ResultSetMetaData rsmd = rs.getMetaData();
@@ -792,7 +1029,7 @@ public class Retail {
             type = type.trim();
             if(type.equals("manager")) {
                //grab the store based off id
-               String get_popular_products = "SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '" + userID + "' GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5";
+               String get_popular_products = "SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '" + userID + "'" + popularityWindow("O.orderTime") + " GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5";
                esql.executeQueryAndPrintResult(get_popular_products);
             }     
          }
@@ -806,7 +1043,7 @@ public class Retail {
    //store(s).
    public static void viewPopularCustomers(Retail esql, String authorizedUser) {
       try {
-         Statement stmt = esql._connection.createStatement();
+         Statement stmt = esql.connection().createStatement();
 		   String check_user = ("SELECT userID, type FROM Users WHERE name = '" + authorizedUser + "'");
          ResultSet rs = stmt.executeQuery(check_user);
          ResultSetMetaData rsmd = rs.getMetaData();
@@ -819,7 +1056,7 @@ public class Retail {
             if(type.equals("manager")) {
                //String get_popular_users = "SELECT U.userID FROM User U";
                //String get_popular_users = "SELECT O.customerID, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders AS O GROUP BY O.customerID";
-               String get_popular_users = "SELECT U.userID, U.name, U.password, U.latitude, U.longitude, U.type, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders AS O, Users U WHERE U.userID = O.customerID GROUP BY U.userID ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5";
+               String get_popular_users = "SELECT U.userID, U.name, U.password, U.latitude, U.longitude, U.type, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders AS O, Users U WHERE U.userID = O.customerID" + popularityWindow("O.orderTime") + " GROUP BY U.userID ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5";
                esql.executeQueryAndPrintResult(get_popular_users);
             }
          }
@@ -830,5 +1067,72 @@ public class Retail {
    }
    public static void placeProductSupplyRequests(Retail esql) {}
 
+   //Bulk Update: Managers and admins give a file of storeID,productName,units,price
+   //lines and every listed product is updated in chunks, with a ProductUpdates
+   //row for each change. Managers can only update the stores they manage.
+   public static void bulkUpdateProducts(Retail esql, String authorizedUser) {
+      try {
+         String check_user = "SELECT userID, type FROM Users WHERE name = '" + authorizedUser + "'";
+         List<List<String>> users = esql.executeQueryAndReturnResult(check_user);
+         if (users.isEmpty())
+            return;
+         int userID = Integer.parseInt(users.get(0).get(0));
+         String type = users.get(0).get(1).trim();
+         if (!type.equals("manager") && !type.equals("admin")) {
+            System.out.println("You are not a manager");
+            return;
+         }
+         System.out.print("Please enter the update file path: ");
+         String path = in.readLine();
+         BufferedReader file = new BufferedReader(new FileReader(new File(path.trim())));
+         try {
+            new BulkProductUpdate(esql, userID, type.equals("admin")).apply(file);
+         }
+         finally {
+            file.close();
+            esql.invalidateProductIndex();
+         }
+      }
+      catch(Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }
+
+   //Find Stock: Customers give a product name and a number of units and see
+   //the nearest stores that have at least that many units in stock, so they
+   //do not have to look through every store within 30 miles when ordering.
+   public static void findNearestStock(Retail esql, String authorizedUser) {
+      try {
+         String get_location = "SELECT latitude, longitude FROM Users WHERE name = '" + authorizedUser + "'";
+         List<List<String>> location = esql.executeQueryAndReturnResult(get_location);
+         if (location.isEmpty())
+            return;
+         double lat = Double.parseDouble(location.get(0).get(0));
+         double longi = Double.parseDouble(location.get(0).get(1));
+         System.out.print("Please enter product name: ");
+         String productName = in.readLine();
+         System.out.print("Please enter number of units: ");
+         int numberOfUnits = Integer.parseInt(in.readLine());
+         System.out.print("Please enter how many stores to show: ");
+         int k = Integer.parseInt(in.readLine());
+
+         List<ProductIndex.Posting> stores = esql.productIndex().nearest(productName, numberOfUnits, k, lat, longi);
+         if (stores.isEmpty()) {
+            System.out.println("No store has " + numberOfUnits + " units of " + productName);
+            return;
+         }
+         System.out.println(padRight("storeid", 20) + padRight("name", 20) + padRight("numberofunits", 20)
+                            + padRight("priceperunit", 20) + padRight("distance", 20));
+         for (ProductIndex.Posting p : stores) {
+            System.out.println(padRight(String.valueOf(p.storeID), 20) + padRight(p.storeName, 20)
+                               + padRight(String.valueOf(p.units), 20) + padRight(String.valueOf(p.price), 20)
+                               + padRight(String.format("%.2f", p.distance), 20));
+         }
+      }
+      catch(Exception e) {
+         System.err.println(e.getMessage());
+      }
+   }
+
 }//end Retail
 
@@ -1,6 +1,11 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_tables.sql
+psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_partitions.sql
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_indexes.sql
 psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/load_data.sql
+# change notification for -Dretail.listen=true instances
+if [ "$RETAIL_LISTEN" = "true" ]; then
+   psql -h localhost -p $PGPORT $USER"_DB" < $DIR/../src/create_triggers.sql
+fi
 
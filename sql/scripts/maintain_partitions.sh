@@ -0,0 +1,40 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# Partition maintenance for Orders and ProductUpdates, meant to run daily
+# from cron:
+#  1. creates the monthly partitions for the next FUTURE_MONTHS months
+#  2. detaches every partition older than KEEP_MONTHS months, archives it to
+#     $ARCHIVE_DIR/<partition>.csv.gz and drops it once the archive is
+#     verified
+#
+# usage: maintain_partitions.sh [KEEP_MONTHS] [FUTURE_MONTHS]
+KEEP_MONTHS=${1:-24}
+FUTURE_MONTHS=${2:-3}
+ARCHIVE_DIR=${ARCHIVE_DIR:-$DIR/../../archive}
+PSQL="psql -h localhost -p $PGPORT -X -q -v ON_ERROR_STOP=1 ${USER}_DB"
+
+set -o pipefail
+mkdir -p $ARCHIVE_DIR
+
+$PSQL -t -A -c "SELECT create_future_partitions($FUTURE_MONTHS)" | sed 's/^/partitions created: /'
+
+for PARENT in orders productupdates; do
+   for ROW in $($PSQL -t -A -F ' ' -c "SELECT partName || ':' || attached FROM expired_partitions('$PARENT', $KEEP_MONTHS)"); do
+      PART=${ROW%%:*}
+      echo "archiving $PART"
+      if [ "${ROW##*:}" = "true" ]; then
+         $PSQL -c "ALTER TABLE $PARENT DETACH PARTITION $PART" || exit 1
+      fi
+      if $PSQL -c "\copy $PART TO STDOUT WITH CSV HEADER" | gzip > $ARCHIVE_DIR/$PART.csv.gz.tmp \
+         && gzip -t $ARCHIVE_DIR/$PART.csv.gz.tmp; then
+         mv $ARCHIVE_DIR/$PART.csv.gz.tmp $ARCHIVE_DIR/$PART.csv.gz
+         $PSQL -c "DROP TABLE $PART"
+      else
+         # keep the detached table so the archive can be retried
+         echo "archiving $PART failed, table left detached" >&2
+         rm -f $ARCHIVE_DIR/$PART.csv.gz.tmp
+         exit 1
+      fi
+   done
+done
@@ -0,0 +1,56 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# Grows Orders to ROWS synthetic orders spread over the last five years and
+# times the Orders queries of the Retail menu with EXPLAIN (ANALYZE, BUFFERS).
+# Run it once on a database built from the unpartitioned schema and once on
+# the partitioned one to compare.
+#
+# usage: partition_benchmark.sh [ROWS] [BATCH]
+ROWS=${1:-100000000}
+BATCH=${2:-1000000}
+PSQL="psql -h localhost -p $PGPORT -X -q -v ON_ERROR_STOP=1 ${USER}_DB"
+
+# on the partitioned schema, give every generated month its own partition
+$PSQL <<'SQL'
+DO $$
+BEGIN
+   IF to_regproc('create_monthly_partition') IS NOT NULL THEN
+      PERFORM create_monthly_partition('orders', m::date)
+      FROM generate_series(now() - interval '5 years', now(), interval '1 month') m;
+   END IF;
+END
+$$;
+SQL
+
+DONE=$($PSQL -t -A -c "SELECT count(*) FROM Orders")
+while [ $DONE -lt $ROWS ]; do
+   N=$(( ROWS - DONE < BATCH ? ROWS - DONE : BATCH ))
+   $PSQL -c "
+      WITH p AS (SELECT array_agg(storeID) AS stores, array_agg(productName) AS names, count(*) AS n FROM Product),
+           u AS (SELECT array_agg(userID) AS ids, count(*) AS n FROM Users WHERE type = 'customer')
+      INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime)
+      SELECT u.ids[1 + (random() * (u.n - 1))::int], p.stores[k], p.names[k], 1 + g % 10,
+             now() - random() * interval '5 years'
+      FROM p, u, generate_series(1, $N) g, LATERAL (SELECT 1 + (random() * (p.n - 1) + g * 0)::int AS k) r" || exit 1
+   DONE=$(( DONE + N ))
+   echo "$DONE orders"
+done
+$PSQL -c "VACUUM ANALYZE Orders"
+
+CUSTOMER=$($PSQL -t -A -c "SELECT userID FROM Users WHERE type = 'customer' LIMIT 1")
+MANAGER=$($PSQL -t -A -c "SELECT managerID FROM Store LIMIT 1")
+$PSQL <<SQL
+\echo viewRecentOrders, last two months
+EXPLAIN (ANALYZE, BUFFERS) SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '$CUSTOMER' AND S.storeID = O.storeID AND O.orderTime >= date_trunc('month', now()) - interval '1 month' AND O.orderTime < date_trunc('month', now()) + interval '1 month' ORDER BY O.orderTime DESC LIMIT 5;
+\echo viewRecentOrders, whole history fallback
+EXPLAIN (ANALYZE, BUFFERS) SELECT S.name, O.productName, O.unitsOrdered, O.orderTime FROM Orders AS O, Store AS S WHERE customerID = '$CUSTOMER' AND S.storeID = O.storeID ORDER BY O.orderTime DESC LIMIT 5;
+\echo viewRecentUpdates, last two months
+EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM productUpdates AS PU, Store AS S WHERE S.storeID = PU.storeID AND PU.managerID = '$MANAGER' AND PU.updatedOn >= date_trunc('month', now()) - interval '1 month' AND PU.updatedOn < date_trunc('month', now()) + interval '1 month' ORDER BY PU.updatedOn DESC LIMIT 5;
+\echo viewPopularProducts, whole history
+EXPLAIN (ANALYZE, BUFFERS) SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '$MANAGER' GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5;
+\echo viewPopularProducts, last 3 months
+EXPLAIN (ANALYZE, BUFFERS) SELECT O.productName, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders O, Store S WHERE O.storeID = S.storeID AND S.managerID = '$MANAGER' AND O.orderTime >= date_trunc('month', now()) - interval '3 months' GROUP BY O.productName ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5;
+\echo viewPopularCustomers, last 3 months
+EXPLAIN (ANALYZE, BUFFERS) SELECT U.userID, U.name, COUNT(*) AS TOTAL_TIMES_ORDERED FROM Orders AS O, Users U WHERE U.userID = O.customerID AND O.orderTime >= date_trunc('month', now()) - interval '3 months' GROUP BY U.userID ORDER BY TOTAL_TIMES_ORDERED DESC LIMIT 5;
+SQL
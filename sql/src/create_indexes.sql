@@ -0,0 +1,20 @@
+-- Indexes on the partitioned tables are created on every partition,
+-- including partitions added later by create_monthly_partition.
+
+-- recent orders of a customer (viewRecentOrders)
+CREATE INDEX orders_customer_time ON Orders (customerID, orderTime);
+
+-- orders of a store (viewPopularProducts)
+CREATE INDEX orders_store_time ON Orders (storeID, orderTime);
+
+-- recent updates of a manager (viewRecentUpdates)
+CREATE INDEX productupdates_manager_time ON ProductUpdates (managerID, updatedOn);
+
+-- the logged in user, looked up by name in LogIn and every menu method
+CREATE INDEX users_name ON Users (name);
+
+-- stores of a manager (updateProduct, viewPopularProducts, bulk updates)
+CREATE INDEX store_manager ON Store (managerID);
+
+-- stores at a location, looked up once per nearby store (viewStores, placeOrder)
+CREATE INDEX store_location ON Store (latitude, longitude);
@@ -0,0 +1,95 @@
+-- Monthly range partitions for Orders (by orderTime) and ProductUpdates (by
+-- updatedOn). A partition is named <table>_pYYYY_MM and holds one calendar
+-- month; rows outside every partition land in <table>_default until their
+-- month's partition is created.
+
+CREATE TABLE IF NOT EXISTS Orders_default PARTITION OF Orders DEFAULT;
+CREATE TABLE IF NOT EXISTS ProductUpdates_default PARTITION OF ProductUpdates DEFAULT;
+
+CREATE OR REPLACE FUNCTION partition_column(parent text) RETURNS text AS $$
+   SELECT CASE lower(parent) WHEN 'orders' THEN 'ordertime'
+                             WHEN 'productupdates' THEN 'updatedon' END;
+$$ LANGUAGE sql IMMUTABLE;
+
+-- Creates the partition of parent holding forMonth, moving any of its rows out
+-- of the default partition first. Returns false if it already exists.
+CREATE OR REPLACE FUNCTION create_monthly_partition(parent text, forMonth date) RETURNS boolean AS $$
+DECLARE
+   startOn date := date_trunc('month', forMonth)::date;
+   endOn date := (date_trunc('month', forMonth) + interval '1 month')::date;
+   partName text := lower(parent) || '_p' || to_char(startOn, 'YYYY_MM');
+   defaultName text := lower(parent) || '_default';
+   col text := partition_column(parent);
+   hasRows boolean;
+BEGIN
+   IF to_regclass(partName) IS NOT NULL THEN
+      RETURN false;
+   END IF;
+   EXECUTE format('SELECT EXISTS (SELECT 1 FROM %I WHERE %I >= %L AND %I < %L)',
+                  defaultName, col, startOn, col, endOn) INTO hasRows;
+   IF hasRows THEN
+      EXECUTE format('CREATE TEMP TABLE partition_rows AS SELECT * FROM %I WHERE %I >= %L AND %I < %L',
+                     defaultName, col, startOn, col, endOn);
+      EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+                     defaultName, col, startOn, col, endOn);
+   END IF;
+   EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                  partName, lower(parent), startOn, endOn);
+   IF hasRows THEN
+      EXECUTE format('INSERT INTO %I SELECT * FROM partition_rows', lower(parent));
+      DROP TABLE partition_rows;
+   END IF;
+   RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitions of Orders and ProductUpdates from this month up to
+-- monthsAhead months from now. Run regularly by maintain_partitions.sh.
+CREATE OR REPLACE FUNCTION create_future_partitions(monthsAhead integer) RETURNS integer AS $$
+DECLARE
+   created integer := 0;
+BEGIN
+   FOR i IN 0..monthsAhead LOOP
+      IF create_monthly_partition('orders', (current_date + make_interval(months => i))::date) THEN
+         created := created + 1;
+      END IF;
+      IF create_monthly_partition('productupdates', (current_date + make_interval(months => i))::date) THEN
+         created := created + 1;
+      END IF;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Gives every month found in parent's default partition its own partition,
+-- e.g. after loading historic data.
+CREATE OR REPLACE FUNCTION partition_default_rows(parent text) RETURNS integer AS $$
+DECLARE
+   monthStart date;
+   created integer := 0;
+BEGIN
+   FOR monthStart IN EXECUTE format('SELECT DISTINCT date_trunc(''month'', %I)::date FROM %I',
+                               partition_column(parent), lower(parent) || '_default') LOOP
+      IF create_monthly_partition(parent, monthStart) THEN
+         created := created + 1;
+      END IF;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Lists the monthly partitions of parent that ended more than keepMonths
+-- months before the current month, oldest first. Partitions detached by an
+-- earlier run whose archive failed are listed too, with attached = false.
+CREATE OR REPLACE FUNCTION expired_partitions(parent text, keepMonths integer)
+   RETURNS TABLE(partName text, attached boolean) AS $$
+   SELECT c.relname::text, EXISTS (SELECT 1 FROM pg_inherits i WHERE i.inhrelid = c.oid)
+   FROM pg_class c
+   WHERE c.relkind IN ('r', 'p')
+     AND c.relname ~ ('^' || lower(parent) || '_p[0-9]{4}_[0-9]{2}$')
+     AND c.relnamespace = to_regnamespace(current_schema())
+     AND to_date(right(c.relname, 7), 'YYYY_MM') < date_trunc('month', now()) - make_interval(months => keepMonths)
+   ORDER BY 1;
+$$ LANGUAGE sql STABLE;
+
+SELECT create_future_partitions(3);
@@ -5,6 +5,7 @@ DROP TABLE IF EXISTS Warehouse CASCADE;
 DROP TABLE IF EXISTS Orders CASCADE;
 DROP TABLE IF EXISTS ProductSupplyRequests CASCADE;
 DROP TABLE IF EXISTS ProductUpdates CASCADE;
+DROP TABLE IF EXISTS ChangeLog CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50) NOT NULL,
@@ -48,10 +49,10 @@ CREATE TABLE Orders (
                      productName char(30) NOT NULL, 
                      unitsOrdered integer NOT NULL, 
                      orderTime timestamp NOT NULL,
-                     PRIMARY KEY(orderNumber),
+                     PRIMARY KEY(orderNumber, orderTime),  -- must include the partition key
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
                      FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
-);
+) PARTITION BY RANGE (orderTime);  -- monthly partitions, see create_partitions.sql
 
 CREATE TABLE ProductSupplyRequests (  
 							   requestNumber serial NOT NULL,
@@ -72,7 +73,18 @@ CREATE TABLE ProductUpdates (
                         	storeID integer NOT NULL,
                        		productName char(30) NOT NULL, 
                             updatedOn timestamp NOT NULL,
-                        	PRIMARY KEY(updateNumber),
+                        	PRIMARY KEY(updateNumber, updatedOn),  -- must include the partition key
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
                         	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+) PARTITION BY RANGE (updatedOn);  -- monthly partitions, see create_partitions.sql
+
+-- one row per changed Product, Store or Users key, written by the triggers in
+-- create_triggers.sql and read by every Retail instance to refresh its caches
+CREATE TABLE ChangeLog (
+                         changeNumber bigserial,
+                         tableName char(30) NOT NULL,
+                         changedKey text NOT NULL,
+                         operation char(6) NOT NULL,
+                         changedOn timestamp NOT NULL DEFAULT clock_timestamp(),
+                         PRIMARY KEY(changeNumber)
 );
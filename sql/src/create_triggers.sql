@@ -0,0 +1,68 @@
+-- Change notification for Retail instances that cache Product, Store or Users.
+-- Every changed key is logged in ChangeLog and announced on the
+-- 'retail_changes' channel with payload  table|key|operation|changeNumber
+-- Product keys are storeID:productName, Store keys storeID, Users keys userID.
+-- Only installed by create_db.sh when RETAIL_LISTEN=true. ChangeLog prunes
+-- itself: every 1000th change deletes the rows older than an hour.
+
+CREATE OR REPLACE FUNCTION log_retail_change(tbl text, changedKey text, op text) RETURNS void AS $$
+DECLARE
+   num bigint;
+BEGIN
+   INSERT INTO ChangeLog (tableName, changedKey, operation)
+   VALUES (tbl, changedKey, op)
+   RETURNING changeNumber INTO num;
+   PERFORM pg_notify('retail_changes', tbl || '|' || changedKey || '|' || op || '|' || num);
+   IF num % 1000 = 0 THEN
+      DELETE FROM ChangeLog WHERE changedOn < now() - interval '1 hour';
+   END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION product_changed() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' AND (TG_OP = 'DELETE' OR OLD.storeID <> NEW.storeID OR OLD.productName <> NEW.productName) THEN
+      PERFORM log_retail_change('product', OLD.storeID || ':' || trim(OLD.productName), 'DELETE');
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM log_retail_change('product', NEW.storeID || ':' || trim(NEW.productName), TG_OP);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION store_changed() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' AND (TG_OP = 'DELETE' OR OLD.storeID <> NEW.storeID) THEN
+      PERFORM log_retail_change('store', OLD.storeID::text, 'DELETE');
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM log_retail_change('store', NEW.storeID::text, TG_OP);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION users_changed() RETURNS trigger AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' AND (TG_OP = 'DELETE' OR OLD.userID <> NEW.userID) THEN
+      PERFORM log_retail_change('users', OLD.userID::text, 'DELETE');
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM log_retail_change('users', NEW.userID::text, TG_OP);
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS product_changed ON Product;
+CREATE TRIGGER product_changed AFTER INSERT OR UPDATE OR DELETE ON Product
+   FOR EACH ROW EXECUTE PROCEDURE product_changed();
+
+DROP TRIGGER IF EXISTS store_changed ON Store;
+CREATE TRIGGER store_changed AFTER INSERT OR UPDATE OR DELETE ON Store
+   FOR EACH ROW EXECUTE PROCEDURE store_changed();
+
+DROP TRIGGER IF EXISTS users_changed ON Users;
+CREATE TRIGGER users_changed AFTER INSERT OR UPDATE OR DELETE ON Users
+   FOR EACH ROW EXECUTE PROCEDURE users_changed();
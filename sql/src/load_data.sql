@@ -30,3 +30,7 @@ COPY ProductUpdates
 FROM '/extra/bdick011/CS166_Final_Project/data/productUpdates.csv'
 WITH DELIMITER ',' CSV HEADER;
 ALTER SEQUENCE productupdates_updateNumber_seq RESTART 51;
+
+-- move the loaded history out of the default partitions
+SELECT partition_default_rows('orders');
+SELECT partition_default_rows('productupdates');